@@ -39,10 +39,8 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 public class BaseForm extends LexicalItem {
@@ -50,18 +48,28 @@ public class BaseForm extends LexicalItem {
     public static final String DEFAULT_ENCODING = "UTF-8";
     public static final char POS_SEPARATOR = '-';
 
-    private static final Map<String, BaseForm> baseForms = new HashMap<String, BaseForm>();
+    private static final BaseFormDictionary baseForms = new BaseFormDictionary();
 
     private final String value;
+    private final int index;
 
-    private BaseForm(String value) {
+    BaseForm(String value, int index) {
         this.value = value;
+        this.index = index;
     }
 
     public String getValue() {
         return value;
     }
 
+    /**
+     * Base forms are numbered from zero without gaps, separately from the lexical item id.
+     * @return the dense index of this base form
+     */
+    public int getIndex() {
+        return index;
+    }
+
     @Override
     public boolean equals(Object obj) {
         boolean ret = false;
@@ -97,22 +105,30 @@ public class BaseForm extends LexicalItem {
         return value;
     }
 
+    /**
+     * This method is thread safe.
+     */
     public static BaseForm getInstance(String value) {
-        BaseForm baseForm = baseForms.get(value);
-        if (baseForm == null) {
-            baseForm = new BaseForm(value);
-            baseForms.put(value, baseForm);
-        }
-        return baseForm;
+        return baseForms.getInstance(value);
+    }
+
+    /**
+     * @return the base form with the given index, or null if there isn't one
+     */
+    public static BaseForm getInstance(int index) {
+        return baseForms.get(index);
     }
 
     public static BaseForm getPOSInstance(String pos) {
-        String basePOS = pos;
-        int sepLocation = pos.indexOf(POS_SEPARATOR);
-        if(sepLocation > -1) {
-            basePOS = pos.substring(0, sepLocation);
-        }
-        return getInstance(basePOS);
+        return baseForms.getPOSInstance(pos);
+    }
+
+    /**
+     * This dictionary holds the base forms created through the static methods of this class.
+     * It is never cleared.
+     */
+    public static BaseFormDictionary getDictionary() {
+        return baseForms;
     }
 
     public static List<BaseForm> getInstances(String... values) {
@@ -160,9 +176,7 @@ public class BaseForm extends LexicalItem {
     }
 
     public static List<BaseForm> getBaseForms() {
-        ArrayList<BaseForm> list = new ArrayList<BaseForm>(baseForms.values());
-        Collections.sort(list);
-        return list;
+        return baseForms.getBaseForms();
     }
 
 }
\ No newline at end of file
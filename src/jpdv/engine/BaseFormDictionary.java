@@ -0,0 +1,160 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class interns base forms and gives each one a dense integer index.
+ *
+ * A dictionary can belong to a single corpus or vector space, so that the
+ * base forms it holds can be garbage collected along with their owner or
+ * released with clear().  Base forms from different dictionaries are equal
+ * if their values are equal, but their indexes are only meaningful within
+ * their own dictionary.
+ *
+ * Indexes start at zero and are contiguous, so arrays can be indexed by
+ * BaseForm.getIndex() instead of hashing BaseForm objects.
+ *
+ * Lookups of existing base forms don't lock.  New base forms are created
+ * under one of several striped locks, so threads interning different
+ * strings rarely wait on each other.
+ */
+public class BaseFormDictionary {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int BLOCK_BITS = 16;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final int MAX_BLOCKS = 1 << (31 - BLOCK_BITS);
+
+    private final ConcurrentHashMap<String, BaseForm> baseForms = new ConcurrentHashMap<String, BaseForm>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+    // Base forms by index, allocated one block at a time
+    private final AtomicReferenceArray<BaseForm[]> blocks = new AtomicReferenceArray<BaseForm[]>(MAX_BLOCKS);
+
+    public BaseFormDictionary() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public BaseForm getInstance(String value) {
+        BaseForm baseForm = baseForms.get(value);
+        if (baseForm == null) {
+            synchronized (locks[(value.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES]) {
+                baseForm = baseForms.get(value);
+                if (baseForm == null) {
+                    int index = nextIndex.getAndIncrement();
+                    baseForm = new BaseForm(value, index);
+                    getBlock(index)[index & BLOCK_MASK] = baseForm;
+                    // Publish the base form only once it can be found by index
+                    baseForms.put(value, baseForm);
+                }
+            }
+        }
+        return baseForm;
+    }
+
+    public BaseForm getPOSInstance(String pos) {
+        String basePOS = pos;
+        int sepLocation = pos.indexOf(BaseForm.POS_SEPARATOR);
+        if(sepLocation > -1) {
+            basePOS = pos.substring(0, sepLocation);
+        }
+        return getInstance(basePOS);
+    }
+
+    private BaseForm[] getBlock(int index) {
+        int blockIndex = index >>> BLOCK_BITS;
+        BaseForm[] block = blocks.get(blockIndex);
+        if (block == null) {
+            blocks.compareAndSet(blockIndex, null, new BaseForm[BLOCK_SIZE]);
+            block = blocks.get(blockIndex);
+        }
+        return block;
+    }
+
+    /**
+     * @return the base form with the given index, or null if there isn't one
+     */
+    public BaseForm get(int index) {
+        BaseForm baseForm = null;
+        if (index >= 0) {
+            BaseForm[] block = blocks.get(index >>> BLOCK_BITS);
+            if (block != null) {
+                baseForm = block[index & BLOCK_MASK];
+            }
+        }
+        return baseForm;
+    }
+
+    /**
+     * @return the base form for the given value if it has already been created
+     */
+    public BaseForm lookup(String value) {
+        return baseForms.get(value);
+    }
+
+    /**
+     * All indexes are less than this value.
+     */
+    public int size() {
+        return nextIndex.get();
+    }
+
+    /**
+     * Forgets every base form in this dictionary and starts numbering from zero again.
+     * Base forms that are still referenced elsewhere stay valid, but their
+     * indexes will be reused.  This must not be called while other threads
+     * are using the dictionary.
+     */
+    public void clear() {
+        baseForms.clear();
+        int blockCount = (nextIndex.get() + BLOCK_SIZE - 1) >>> BLOCK_BITS;
+        for (int i = 0; i < blockCount; i++) {
+            blocks.set(i, null);
+        }
+        nextIndex.set(0);
+    }
+
+    public List<BaseForm> getBaseForms() {
+        ArrayList<BaseForm> list = new ArrayList<BaseForm>(baseForms.values());
+        Collections.sort(list);
+        return list;
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class reads and writes the binary corpus format.
+ *
+ * The format is columnar: every token and chunk attribute is stored as a
+ * primitive array, and every string is stored once in a string table and
+ * referred to by its index.  All integers are big endian and every section
+ * starts on a four byte boundary.
+ *
+ * <pre>
+ * int      magic ("JPDV")
+ * int      version
+ * int      string count, sentence count, chunk count, token count
+ * int[]    string offsets (string count + 1) into the string data
+ * byte[]   string data (UTF-8, padded to a multiple of four bytes)
+ * int[]    first chunk of each sentence (sentence count + 1)
+ * int[]    first token of each chunk (chunk count + 1)
+ * int[]    chunk id, link, rel, head, func (chunk count each)
+ * double[] chunk score (chunk count)
+ * int[]    token id, reading, base, pos, ctype, cform, ne, value (token count each)
+ * </pre>
+ */
+public class BinaryCorpus {
+
+    public static final int MAGIC = 0x4A504456;
+    public static final int VERSION = 1;
+    public static final String ENCODING = "UTF-8";
+
+    public static final int HEADER_SIZE = 6 * 4;
+
+    public static final int TOKEN_ID = 0;
+    public static final int TOKEN_READING = 1;
+    public static final int TOKEN_BASE = 2;
+    public static final int TOKEN_POS = 3;
+    public static final int TOKEN_CTYPE = 4;
+    public static final int TOKEN_CFORM = 5;
+    public static final int TOKEN_NE = 6;
+    public static final int TOKEN_VALUE = 7;
+    public static final int TOKEN_COLUMNS = 8;
+
+    public static final int CHUNK_ID = 0;
+    public static final int CHUNK_LINK = 1;
+    public static final int CHUNK_REL = 2;
+    public static final int CHUNK_HEAD = 3;
+    public static final int CHUNK_FUNC = 4;
+    public static final int CHUNK_COLUMNS = 5;
+
+    private BinaryCorpus() {}
+
+    public static void write(Iterable<Sentence> corpus, OutputStream out) throws IOException {
+        int sentenceCount = 0;
+        int chunkCount = 0;
+        int tokenCount = 0;
+        for (Sentence sentence : corpus) {
+            sentenceCount++;
+            for (Chunk chunk : sentence) {
+                chunkCount++;
+                tokenCount += chunk.getTokens().size();
+            }
+        }
+
+        Map<String, Integer> stringIds = new HashMap<String, Integer>();
+        ArrayList<String> strings = new ArrayList<String>();
+        int[] sentenceChunks = new int[sentenceCount + 1];
+        int[] chunkTokens = new int[chunkCount + 1];
+        int[][] chunkColumns = new int[CHUNK_COLUMNS][chunkCount];
+        double[] chunkScores = new double[chunkCount];
+        int[][] tokenColumns = new int[TOKEN_COLUMNS][tokenCount];
+
+        int s = 0;
+        int c = 0;
+        int t = 0;
+        for (Sentence sentence : corpus) {
+            sentenceChunks[s++] = c;
+            for (Chunk chunk : sentence) {
+                chunkTokens[c] = t;
+                chunkColumns[CHUNK_ID][c] = chunk.getLocalId();
+                chunkColumns[CHUNK_LINK][c] = chunk.getLink();
+                chunkColumns[CHUNK_REL][c] = chunk.getRel().ordinal();
+                chunkColumns[CHUNK_HEAD][c] = chunk.getHeadId();
+                chunkColumns[CHUNK_FUNC][c] = chunk.getFuncId();
+                chunkScores[c] = chunk.getScore();
+                c++;
+                for (Token token : chunk) {
+                    tokenColumns[TOKEN_ID][t] = token.getLocalId();
+                    tokenColumns[TOKEN_READING][t] = stringId(token.getReading(), stringIds, strings);
+                    tokenColumns[TOKEN_BASE][t] = stringId(token.getBase(), stringIds, strings);
+                    tokenColumns[TOKEN_POS][t] = stringId(token.getPos(), stringIds, strings);
+                    tokenColumns[TOKEN_CTYPE][t] = stringId(token.getCtype(), stringIds, strings);
+                    tokenColumns[TOKEN_CFORM][t] = stringId(token.getCform(), stringIds, strings);
+                    tokenColumns[TOKEN_NE][t] = stringId(token.getNe(), stringIds, strings);
+                    tokenColumns[TOKEN_VALUE][t] = stringId(token.getValue(), stringIds, strings);
+                    t++;
+                }
+            }
+        }
+        sentenceChunks[s] = c;
+        chunkTokens[c] = t;
+
+        // Build the string table
+        ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+        int[] stringOffsets = new int[strings.size() + 1];
+        for (int i = 0; i < strings.size(); i++) {
+            stringOffsets[i] = stringData.size();
+            stringData.write(strings.get(i).getBytes(ENCODING));
+        }
+        stringOffsets[strings.size()] = stringData.size();
+        while (stringData.size() % 4 != 0) {
+            stringData.write(0);
+        }
+
+        DataOutputStream o = new DataOutputStream(new BufferedOutputStream(out));
+        o.writeInt(MAGIC);
+        o.writeInt(VERSION);
+        o.writeInt(strings.size());
+        o.writeInt(sentenceCount);
+        o.writeInt(chunkCount);
+        o.writeInt(tokenCount);
+        writeInts(o, stringOffsets);
+        stringData.writeTo(o);
+        writeInts(o, sentenceChunks);
+        writeInts(o, chunkTokens);
+        for (int[] column : chunkColumns) {
+            writeInts(o, column);
+        }
+        for (double score : chunkScores) {
+            o.writeDouble(score);
+        }
+        for (int[] column : tokenColumns) {
+            writeInts(o, column);
+        }
+        o.flush();
+    }
+
+    private static int stringId(String value, Map<String, Integer> stringIds, ArrayList<String> strings) {
+        if (value == null) {
+            value = "";
+        }
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+    private static void writeInts(DataOutputStream o, int[] values) throws IOException {
+        for (int value : values) {
+            o.writeInt(value);
+        }
+    }
+
+    public static Corpus read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Corpus File Too Large: %s", file.getAbsolutePath()));
+            }
+            // Read the whole file in one sequential pass
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException(String.format("Unexpected End Of File: %s", file.getAbsolutePath()));
+                }
+            }
+            buffer.flip();
+            return read(buffer);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static Corpus read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] b = new byte[64 * 1024];
+        int length = in.read(b);
+        while (length >= 0) {
+            bytes.write(b, 0, length);
+            length = in.read(b);
+        }
+        return read(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    public static Corpus read(ByteBuffer buffer) throws IOException {
+        checkHeader(buffer);
+        int stringCount = buffer.getInt();
+        int sentenceCount = buffer.getInt();
+        int chunkCount = buffer.getInt();
+        int tokenCount = buffer.getInt();
+
+        int[] stringOffsets = readInts(buffer, stringCount + 1);
+        String[] strings = new String[stringCount];
+        byte[] stringData = new byte[stringOffsets[stringCount]];
+        buffer.get(stringData);
+        skipPadding(buffer, stringData.length);
+        for (int i = 0; i < stringCount; i++) {
+            strings[i] = new String(stringData, stringOffsets[i], stringOffsets[i + 1] - stringOffsets[i], ENCODING);
+        }
+
+        int[] sentenceChunks = readInts(buffer, sentenceCount + 1);
+        int[] chunkTokens = readInts(buffer, chunkCount + 1);
+        int[][] chunkColumns = new int[CHUNK_COLUMNS][];
+        for (int i = 0; i < CHUNK_COLUMNS; i++) {
+            chunkColumns[i] = readInts(buffer, chunkCount);
+        }
+        double[] chunkScores = new double[chunkCount];
+        buffer.asDoubleBuffer().get(chunkScores);
+        buffer.position(buffer.position() + chunkCount * 8);
+        int[][] tokenColumns = new int[TOKEN_COLUMNS][];
+        for (int i = 0; i < TOKEN_COLUMNS; i++) {
+            tokenColumns[i] = readInts(buffer, tokenCount);
+        }
+
+        Chunk.Rel[] rels = Chunk.Rel.values();
+        BaseFormDictionary dictionary = new BaseFormDictionary();
+        Corpus corpus = new Corpus(dictionary);
+        for (int s = 0; s < sentenceCount; s++) {
+            Sentence sentence = new Sentence();
+            for (int c = sentenceChunks[s]; c < sentenceChunks[s + 1]; c++) {
+                Chunk chunk = new Chunk(chunkColumns[CHUNK_ID][c], chunkColumns[CHUNK_LINK][c],
+                        rels[chunkColumns[CHUNK_REL][c]].name(), chunkScores[c],
+                        chunkColumns[CHUNK_HEAD][c], chunkColumns[CHUNK_FUNC][c]);
+                for (int t = chunkTokens[c]; t < chunkTokens[c + 1]; t++) {
+                    Token token = new Token(dictionary, tokenColumns[TOKEN_ID][t],
+                            strings[tokenColumns[TOKEN_READING][t]],
+                            strings[tokenColumns[TOKEN_BASE][t]],
+                            strings[tokenColumns[TOKEN_POS][t]],
+                            strings[tokenColumns[TOKEN_CTYPE][t]],
+                            strings[tokenColumns[TOKEN_CFORM][t]],
+                            strings[tokenColumns[TOKEN_NE][t]],
+                            strings[tokenColumns[TOKEN_VALUE][t]]);
+                    chunk.addToken(token);
+                }
+                sentence.addChunk(chunk);
+            }
+            sentence.fillTree();
+            corpus.addSentence(sentence);
+        }
+        return corpus;
+    }
+
+    static void checkHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Not A Binary Corpus File");
+        }
+        int magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new IOException(String.format("Not A Binary Corpus File, Magic Number: %08X", magic));
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported Binary Corpus Version: %d", version));
+        }
+    }
+
+    static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    static void skipPadding(ByteBuffer buffer, int length) {
+        int padding = (4 - length % 4) % 4;
+        buffer.position(buffer.position() + padding);
+    }
+
+}
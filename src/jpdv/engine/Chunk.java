@@ -37,6 +37,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -161,5 +162,18 @@ public class Chunk extends LexicalItem implements Iterable<Token>, Serializable
         return chunk;
     }
 
+    /**
+     * Creates an empty chunk from the attributes of a chunk start element.
+     * The caller is responsible for adding the chunk's tokens.
+     */
+    public static Chunk fromXML(XMLStreamReader reader) {
+        int localId = Integer.parseInt(reader.getAttributeValue(null, "id"));
+        int link = Integer.parseInt(reader.getAttributeValue(null, "link"));
+        String rel = reader.getAttributeValue(null, "rel");
+        double score = Double.parseDouble(reader.getAttributeValue(null, "score"));
+        int head = Integer.parseInt(reader.getAttributeValue(null, "head"));
+        int func = Integer.parseInt(reader.getAttributeValue(null, "func"));
+        return new Chunk(localId, link, rel, score, head, func);
+    }
 
 }
@@ -0,0 +1,143 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+/**
+ * The dependency tree of the chunks in one sentence, with the children of each chunk in order.
+ *
+ * Chunks are numbered from zero within the sentence.  The arrays are reused from one
+ * sentence to the next, so loading a sentence doesn't allocate anything once the
+ * longest sentence has been seen.  This class isn't thread safe.
+ */
+class ChunkTree {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final IndexedCorpus corpus;
+    private int chunkStart = -1;
+    private int chunkEnd = -1;
+    private int root = -1;
+    // The children of chunk i are children[firstChild[i]] up to children[firstChild[i + 1]]
+    private int[] firstChild = new int[INITIAL_CAPACITY + 1];
+    private int[] children = new int[INITIAL_CAPACITY];
+    private int[] nextChild = new int[INITIAL_CAPACITY];
+
+    ChunkTree(IndexedCorpus corpus) {
+        this.corpus = corpus;
+    }
+
+    /**
+     * Loads the given range of chunks, unless it is already loaded.
+     * A chunk's parent is ignored if it isn't in the same range, or if it is the chunk itself.
+     */
+    void load(int chunkStart, int chunkEnd) {
+        if (chunkStart == this.chunkStart && chunkEnd == this.chunkEnd) {
+            return;
+        }
+        int size = chunkEnd - chunkStart;
+        if (size > children.length) {
+            int capacity = Math.max(size, children.length * 2);
+            firstChild = new int[capacity + 1];
+            children = new int[capacity];
+            nextChild = new int[capacity];
+        }
+        root = -1;
+        for (int i = 0; i <= size; i++) {
+            firstChild[i] = 0;
+        }
+        // Count the children of each chunk, then turn the counts into offsets
+        for (int chunk = 0; chunk < size; chunk++) {
+            int parent = corpus.getParent(chunkStart + chunk);
+            if (isParent(parent, chunkStart + chunk, chunkStart, chunkEnd)) {
+                firstChild[parent - chunkStart + 1]++;
+            } else if (parent == -1 && root == -1) {
+                root = chunk;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            firstChild[i + 1] += firstChild[i];
+            nextChild[i] = firstChild[i];
+        }
+        for (int chunk = 0; chunk < size; chunk++) {
+            int parent = corpus.getParent(chunkStart + chunk);
+            if (isParent(parent, chunkStart + chunk, chunkStart, chunkEnd)) {
+                children[nextChild[parent - chunkStart]++] = chunk;
+            }
+        }
+        this.chunkStart = chunkStart;
+        this.chunkEnd = chunkEnd;
+    }
+
+    private static boolean isParent(int parent, int chunk, int chunkStart, int chunkEnd) {
+        return parent >= chunkStart && parent < chunkEnd && parent != chunk;
+    }
+
+    /**
+     * @return the index in the corpus of the sentence's first chunk
+     */
+    int getChunkStart() {
+        return chunkStart;
+    }
+
+    /**
+     * @return the number of chunks in the sentence
+     */
+    int size() {
+        return chunkEnd - chunkStart;
+    }
+
+    /**
+     * @return the first chunk that has no parent, or -1 if there isn't one
+     */
+    int getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the position in the list of children of the given chunk's first child
+     */
+    int getChildStart(int chunk) {
+        return firstChild[chunk];
+    }
+
+    /**
+     * @return the position in the list of children after the given chunk's last child
+     */
+    int getChildEnd(int chunk) {
+        return firstChild[chunk + 1];
+    }
+
+    /**
+     * @return the child at the given position in the list of children
+     */
+    int getChild(int position) {
+        return children[position];
+    }
+}
@@ -30,126 +30,672 @@ wish to do so, delete this exception statement from your version.
 package jpdv.engine;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Deque;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jpdv.functions.FunctionType;
+import jpdv.functions.PathValueCache;
+import jpdv.vectorspace.SparseMatrix;
+import jpdv.vectorspace.SparseVector;
 
+/**
+ * This class counts the tokens that appear within a fixed distance of each target.
+ *
+ * The corpus is read as a single stream of tokens, with a sentence separator
+ * before each sentence and after the last one.  When more than one thread is
+ * used, the sentences are split into shards that are counted separately and
+ * then merged.  Each shard reads up to contextSize tokens past each end of
+ * its range, so the result is the same as counting on a single thread.
+ * With a target index, only the runs of sentences that contain targets are read.
+ *
+ * Several spaces can be counted in the same pass with
+ * {@link #generateSpaces(List, List)}.  The window is then as wide as the
+ * largest context size, and each space takes as much of it as it needs.
+ * Spaces that have the same targets but different context sizes are nested:
+ * each context token is counted once, in a band for its distance from the target,
+ * and the bands are added up for each size once the pass is over.  So counting
+ * sizes 1 to 10 costs about the same as counting size 10 alone.
+ *
+ * By default every token in the window counts the same.  A {@link Weighting}
+ * makes nearer tokens count for more, and a positional space counts the tokens
+ * on each side of the target as separate basis elements.  Both are worked out
+ * while the window is counted, without calling the path value function again.
+ */
 public class ContextSpace extends VectorSpace {
 
+    // The number of shards given to each thread, so that threads
+    // which finish early can pick up more work.
+    public static final int SHARDS_PER_THREAD = 4;
+    // Positional spaces put these in front of the tokens on each side of the target
+    public static final char LEFT_MARKER = '←';
+    public static final char RIGHT_MARKER = '→';
+    public static final double DEFAULT_DECAY = 0.5;
+
+    /**
+     * How much a token in the window counts for, by its distance from the target.
+     */
+    public enum Weighting {
+        // Every token counts once
+        UNIFORM,
+        // A token at distance d counts 1/d
+        INVERSE_DISTANCE,
+        // A token at distance d counts decay to the power d - 1
+        EXPONENTIAL
+    }
+
     // The context size is the number of tokens to look at
     // on each side of the current token.
     private int contextSize;
-    private Iterator<Sentence> sentenceIterator;
-    private Iterator<Chunk> chunkIterator;
-    private Iterator<Token> tokenIterator;
+    private int threads = 1;
+    private Weighting weighting = Weighting.UNIFORM;
+    private double decay = DEFAULT_DECAY;
+    private boolean positional = false;
 
-    public ContextSpace(Corpus corpus, int contextSize) {
+    public ContextSpace(IndexedCorpus corpus, int contextSize) {
         super(corpus);
         this.contextSize = contextSize;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public Weighting getWeighting() {
+        return weighting;
+    }
+
+    public void setWeighting(Weighting weighting) {
+        this.weighting = weighting;
+    }
+
+    /**
+     * @return the factor that each step away from the target multiplies the count by,
+     * with {@link Weighting#EXPONENTIAL}
+     */
+    public double getDecay() {
+        return decay;
+    }
+
+    public void setDecay(double decay) {
+        this.decay = decay;
+    }
+
+    /**
+     * @return true if the tokens before and after the target are counted separately
+     */
+    public boolean isPositional() {
+        return positional;
+    }
+
+    /**
+     * When set, a token before the target is counted as its base form with
+     * {@link #LEFT_MARKER} in front, and a token after it with {@link #RIGHT_MARKER}.
+     * The path value is still that of the unmarked base form.
+     */
+    public void setPositional(boolean positional) {
+        this.positional = positional;
+    }
+
+    /**
+     * The context is made of tokens from the corpus, so the columns
+     * are numbered the same way as the rows.
+     * Positional columns are base forms created by this space.
+     */
+    @Override
+    protected BaseFormDictionary getBasisDictionary() {
+        return positional ? dictionary : corpus.getDictionary();
+    }
+
+    /**
+     * @return the weight of a token at each distance from the target, up to the context size
+     */
+    private double[] getWeights() {
+        double[] weights = new double[contextSize + 1];
+        for (int distance = 1; distance < weights.length; distance++) {
+            switch (weighting) {
+                case INVERSE_DISTANCE:
+                    weights[distance] = 1.0 / distance;
+                    break;
+                case EXPONENTIAL:
+                    weights[distance] = Math.pow(decay, distance - 1);
+                    break;
+                case UNIFORM:
+                default:
+                    weights[distance] = 1.0;
+                    break;
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Spaces that weigh their tokens the same way, and value them with
+     * the same path value function, can share the counts for each distance.
+     */
+    private boolean canNestWith(ContextSpace other) {
+        boolean ret = !positional && !other.positional && weighting == other.weighting
+                && getFunction(FunctionType.PATH_VALUE) == other.getFunction(FunctionType.PATH_VALUE);
+        if (ret && weighting == Weighting.EXPONENTIAL) {
+            ret = decay == other.decay;
+        }
+        return ret;
+    }
+
     @Override
     public void generateSpace(Collection<BaseForm> targets) {
-        Set<BaseForm> targetSet = new HashSet<BaseForm>(targets);
-        Logger logger = Logger.getLogger(ContextSpace.class.getName());
-        // Begin Setup
-        Deque<Token> preContext = new LinkedList<Token>();
-        Deque<Token> postContext = new LinkedList<Token>();
-        Token current = nextToken();
-        while (current != null && preContext.size() < contextSize) {
-            preContext.addLast(current);
-            current = nextToken();
+        generateSpaces(Collections.singletonList(this), Collections.singletonList(targets));
+    }
+
+    /**
+     * Counts several spaces over the same corpus in a single pass.
+     * Each space only counts its own targets, within its own context size.
+     * The threads and target index of the first space are used for all of them.
+     * @param spaces the spaces to count, which must all use the same corpus
+     * @param targets the targets for each space
+     * @throws IllegalStateException if any shard fails, in which case no counts are added to the spaces
+     */
+    static void generateSpaces(List<ContextSpace> spaces, List<? extends Collection<BaseForm>> targets) {
+        final ContextSpace first = spaces.get(0);
+        final Sweep sweep = new Sweep(spaces, targets);
+        int sentenceCount = first.corpus.getSentenceCount();
+        int threads = first.threads;
+        int shardCount = threads <= 1 ? 1 : Math.max(1, Math.min(sentenceCount, threads * SHARDS_PER_THREAD));
+        final int[] ranges = first.getRanges(sweep.allTargets, shardCount);
+        int rangeCount = ranges.length / 2;
+        if (threads <= 1 || rangeCount < 2) {
+            SparseMatrix[] tables = new SparseMatrix[spaces.size()];
+            for (int i = 0; i < tables.length; i++) {
+                tables[i] = spaces.get(i).space;
+            }
+            first.generateRanges(sweep, ranges, 0, rangeCount, tables);
+        } else {
+            // Each shard counts a run of ranges
+            shardCount = Math.min(rangeCount, shardCount);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<SparseMatrix[]>> shards = new ArrayList<Future<SparseMatrix[]>>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                final int firstRange = (int) ((long) rangeCount * i / shardCount);
+                final int lastRange = (int) ((long) rangeCount * (i + 1) / shardCount);
+                shards.add(executor.submit(new Callable<SparseMatrix[]>() {
+                    public SparseMatrix[] call() {
+                        SparseMatrix[] tables = new SparseMatrix[sweep.spaces.length];
+                        for (int j = 0; j < tables.length; j++) {
+                            tables[j] = new SparseMatrix();
+                        }
+                        first.generateRanges(sweep, ranges, firstRange, lastRange, tables);
+                        return tables;
+                    }
+                }));
+            }
+            // Every shard has to finish before any of them is merged, so a failure leaves the spaces empty
+            List<SparseMatrix[]> results = new ArrayList<SparseMatrix[]>(shardCount);
+            try {
+                for (Future<SparseMatrix[]> shard : shards) {
+                    results.add(shard.get());
+                }
+            } catch (InterruptedException ex) {
+                Logger.getLogger(ContextSpace.class.getName()).log(Level.SEVERE, null, ex);
+                cancel(shards);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Couldn't Generate Context Space: Interrupted", ex);
+            } catch (ExecutionException ex) {
+                Logger.getLogger(ContextSpace.class.getName()).log(Level.SEVERE, String.format("Couldn't Generate Context Space: %s", ex.getCause()), ex.getCause());
+                cancel(shards);
+                throw new IllegalStateException(String.format("Couldn't Generate Context Space: %s", ex.getCause()), ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+            for (SparseMatrix[] tables : results) {
+                for (int i = 0; i < tables.length; i++) {
+                    sweep.spaces[i].mergeCounts(tables[i]);
+                }
+            }
+        }
+    }
+
+    private static void cancel(List<? extends Future<?>> shards) {
+        for (Future<?> shard : shards) {
+            shard.cancel(true);
+        }
+    }
+
+    /**
+     * Without a target index, the whole corpus is split into the given number of ranges.
+     * With one, there is a range for each run of sentences that contain targets.
+     * @return the ranges of sentences to count, as pairs of start and end
+     */
+    private int[] getRanges(Collection<BaseForm> targets, int pieces) {
+        int[] ranges;
+        int[] sentences = getTargetSentences(targets);
+        if (sentences == null) {
+            int sentenceCount = corpus.getSentenceCount();
+            ranges = new int[pieces * 2];
+            for (int i = 0; i < pieces; i++) {
+                ranges[i * 2] = (int) ((long) sentenceCount * i / pieces);
+                ranges[i * 2 + 1] = (int) ((long) sentenceCount * (i + 1) / pieces);
+            }
+        } else {
+            int runs = 0;
+            for (int i = 0; i < sentences.length; i++) {
+                if (i == 0 || sentences[i] != sentences[i - 1] + 1) {
+                    runs++;
+                }
+            }
+            ranges = new int[runs * 2];
+            int run = -1;
+            for (int i = 0; i < sentences.length; i++) {
+                if (i == 0 || sentences[i] != sentences[i - 1] + 1) {
+                    run++;
+                    ranges[run * 2] = sentences[i];
+                }
+                ranges[run * 2 + 1] = sentences[i] + 1;
+            }
+        }
+        return ranges;
+    }
+
+    private void generateRanges(Sweep sweep, int[] ranges, int first, int last, SparseMatrix[] tables) {
+        PathValueCache[] caches = new PathValueCache[sweep.spaces.length];
+        for (int i = 0; i < caches.length; i++) {
+            caches[i] = sweep.spaces[i].createPathValueCache();
+        }
+        Marks[] marks = new Marks[sweep.spaces.length];
+        for (int i = 0; i < marks.length; i++) {
+            if (sweep.spaces[i].positional) {
+                marks[i] = new Marks(corpus.getDictionary(), sweep.spaces[i].dictionary);
+            }
+        }
+        SparseMatrix[][] bands = new SparseMatrix[sweep.families.length][];
+        // The cache of the smallest space that each band belongs to, so that its statistics are kept there
+        PathValueCache[][] bandCaches = new PathValueCache[sweep.families.length][];
+        for (int f = 0; f < bands.length; f++) {
+            bands[f] = new SparseMatrix[sweep.bandSizes[f].length];
+            bandCaches[f] = new PathValueCache[sweep.bandSizes[f].length];
+            for (int b = 0; b < bands[f].length; b++) {
+                bands[f][b] = new SparseMatrix();
+            }
+            for (int i : sweep.families[f]) {
+                if (bandCaches[f][sweep.bands[i]] == null) {
+                    bandCaches[f][sweep.bands[i]] = caches[i];
+                }
+            }
         }
-        boolean done = false;
-        while (!done && postContext.size() < contextSize) {
-            Token future = nextToken();
-            if (future == null) {
-                done = true;
-            } else {
-                postContext.addLast(future);
+        for (int i = first; i < last; i++) {
+            generateShard(sweep, ranges[i * 2], ranges[i * 2 + 1], tables, caches, marks, bands, bandCaches);
+        }
+        // Each space gets every band up to its own context size
+        for (int f = 0; f < bands.length; f++) {
+            for (int b = 1; b < bands[f].length; b++) {
+                bands[f][b].addCopy(bands[f][b - 1]);
+            }
+            for (int i : sweep.families[f]) {
+                tables[i].addCopy(bands[f][sweep.bands[i]]);
             }
         }
-        // End Setup
+    }
+
+    /**
+     * Counts the targets that start in the given range of sentences.
+     * The first contextSize tokens of the corpus only ever appear as context,
+     * so a space only counts a target once its whole pre-context has been read.
+     */
+    private void generateShard(Sweep sweep, int start, int end, SparseMatrix[] tables, PathValueCache[] caches, Marks[] marks, SparseMatrix[][] bands, PathValueCache[][] bandCaches) {
+        int windowSize = sweep.contextSize;
+        Logger logger = Logger.getLogger(ContextSpace.class.getName());
+
+        // Start early enough to fill the pre-context of the first target
+        int first = start;
+        int skipped = 0;
+        while (first > 0 && skipped < windowSize) {
+            first--;
+            skipped += getStreamLength(first);
+        }
+        int counted = 0;
+        for (int sentence = start; sentence < end; sentence++) {
+            counted += getStreamLength(sentence);
+        }
+        if (end == corpus.getSentenceCount()) {
+            // The final sentence separator
+            counted++;
+        }
+        TokenStream stream = new TokenStream(first);
+        Window window = new Window(windowSize);
+        BaseFormDictionary baseForms = corpus.getDictionary();
+        // The rows of the current target in each band, reused for every target
+        SparseVector[] rows = new SparseVector[sweep.contextSize + 1];
+
+        // Read the current token and its post-context
+        window.fill(stream);
 
         // Iterate
-        while (current != null) {
-            if (targetSet.contains(current.getBaseForm())) {
-                incrementCount(current, preContext, postContext);
+        while (window.position < window.end && window.position < skipped + counted) {
+            int current = window.get(window.position);
+            if (window.position >= skipped && sweep.allTargetIds.get(current)) {
+                int preSize = Math.min(window.position, windowSize);
+                for (int f = 0; f < sweep.families.length; f++) {
+                    int[] family = sweep.families[f];
+                    if (sweep.targetIds[family[0]].get(current)) {
+                        int largest = sweep.bandSizes[f][sweep.bandSizes[f].length - 1];
+                        if (family.length > 1 && preSize >= largest) {
+                            int widest = family[family.length - 1];
+                            incrementBands(bands[f], rows, sweep.bandOf[f], sweep.weights[widest], bandCaches[f], window);
+                        } else {
+                            for (int i : family) {
+                                if (preSize >= sweep.spaces[i].contextSize) {
+                                    sweep.spaces[i].incrementCount(tables[i], caches[i], sweep.weights[i], marks[i], window);
+                                }
+                            }
+                        }
+                    }
+                }
                 if (logger.isLoggable(Level.FINE)) {
-                    logger.log(Level.FINE, String.format("Pre-Context: %s, Token: %s, Post-Context: %s", preContext.toString(), current, postContext.toString()));
+                    logger.log(Level.FINE, String.format("Pre-Context: %s, Token: %s, Post-Context: %s", getBaseForms(window, window.position - preSize, window.position), baseForms.get(current), getBaseForms(window, window.position + 1, window.end)));
                 }
             }
-            preContext.removeFirst();
-            preContext.addLast(current);
-            if (postContext.isEmpty()) {
-                current = null;
-            } else {
-                current = postContext.removeFirst();
+            window.position++;
+            window.fill(stream);
+        }
+    }
 
-                Token future = nextToken();
-                if (future != null) {
-                    postContext.addLast(future);
-                }
+    /**
+     * Counts the tokens within this space's context size of the window's current token.
+     * The pre-context is counted before the post-context, each in stream order.
+     * @param weights the weight of a token at each distance
+     * @param marks the positional columns, or null if this space isn't positional
+     */
+    private void incrementCount(SparseMatrix table, PathValueCache cache, double[] weights, Marks marks, Window window) {
+        SparseVector row = table.getOrCreateRow(window.get(window.position));
+        int last = Math.min(window.position + contextSize, window.end - 1);
+        for (int position = window.position - contextSize; position <= last; position++) {
+            if (position != window.position) {
+                int basisElement = window.get(position);
+                int column = marks == null ? basisElement : marks.getColumn(basisElement, position < window.position);
+                row.add(column, getValue(cache, basisElement) * weights[Math.abs(position - window.position)]);
             }
         }
     }
 
-    private void incrementCount(Token current, Collection<Token> preContext, Collection<Token> postContext) {
-        BaseForm key = current.getBaseForm();
-        ArrayList<BaseForm> basisElements = new ArrayList<BaseForm>(preContext.size() + postContext.size());
-        for (Token t : preContext) {
-            basisElements.add(t.getBaseForm());
+    /**
+     * Counts each context token in the band for its distance from the current token, working outwards.
+     * The whole pre-context has to be in the window.
+     * @param rows somewhere to keep the current token's row in each band
+     * @param bandOf the band for each distance, up to the largest context size
+     * @param weights the weight of a token at each distance
+     * @param caches the cache for each band, so that a space's path value statistics
+     * only count the distances that it adds to the smaller spaces in its family
+     */
+    private void incrementBands(SparseMatrix[] bands, SparseVector[] rows, int[] bandOf, double[] weights, PathValueCache[] caches, Window window) {
+        int key = window.get(window.position);
+        for (int b = 0; b < bands.length; b++) {
+            rows[b] = bands[b].getOrCreateRow(key);
+        }
+        for (int distance = 1; distance < bandOf.length; distance++) {
+            int basisElement = window.get(window.position - distance);
+            rows[bandOf[distance]].add(basisElement, getValue(caches[bandOf[distance]], basisElement) * weights[distance]);
         }
-        for (Token t : postContext) {
-            basisElements.add(t.getBaseForm());
+        for (int distance = 1; distance < bandOf.length && window.position + distance < window.end; distance++) {
+            int basisElement = window.get(window.position + distance);
+            rows[bandOf[distance]].add(basisElement, getValue(caches[bandOf[distance]], basisElement) * weights[distance]);
         }
-        incrementCount(key, basisElements);
     }
 
-    private Token nextToken() {
-        Token token = null;
-        if (sentenceIterator == null) {
-            sentenceIterator = corpus.iterator();
-            if (sentenceIterator.hasNext()) {
-                chunkIterator = sentenceIterator.next().iterator();
-                if (chunkIterator.hasNext()) {
-                    tokenIterator = chunkIterator.next().iterator();
-                    // First sentence
-                    token = Sentence.SENTENCE_SEPARATOR;
+    private double getValue(PathValueCache cache, int basisElement) {
+        return cache.getValue(corpus.getDictionary().get(basisElement));
+    }
+
+    /**
+     * @return the base forms in the given positions of the window, for logging
+     */
+    private List<BaseForm> getBaseForms(Window window, int start, int end) {
+        List<BaseForm> ret = new ArrayList<BaseForm>(end - start);
+        for (int position = start; position < end; position++) {
+            ret.add(corpus.getDictionary().get(window.get(position)));
+        }
+        return ret;
+    }
+
+    /**
+     * This class numbers the marked copies of the corpus base forms in a positional space's dictionary.
+     * Each thread has its own, so the dictionary is only asked once for each copy.
+     */
+    private static class Marks {
+
+        private final BaseFormDictionary corpusDictionary;
+        private final BaseFormDictionary dictionary;
+        // The left copy of base form i is at 2i and the right copy at 2i + 1,
+        // holding the column plus one, or zero if it hasn't been looked up yet
+        private int[] columns = new int[1024];
+
+        private Marks(BaseFormDictionary corpusDictionary, BaseFormDictionary dictionary) {
+            this.corpusDictionary = corpusDictionary;
+            this.dictionary = dictionary;
+        }
+
+        private int getColumn(int baseForm, boolean left) {
+            int slot = baseForm * 2 + (left ? 0 : 1);
+            if (slot >= columns.length) {
+                columns = Arrays.copyOf(columns, Math.max(slot + 1, columns.length * 2));
+            }
+            if (columns[slot] == 0) {
+                String value = corpusDictionary.get(baseForm).getValue();
+                columns[slot] = dictionary.getInstance((left ? LEFT_MARKER : RIGHT_MARKER) + value).getIndex() + 1;
+            }
+            return columns[slot] - 1;
+        }
+    }
+
+    /**
+     * This class holds the base form indexes around the current token in a ring,
+     * so sliding the window along the stream doesn't allocate anything.
+     * Positions count from the start of the stream.
+     */
+    private static class Window {
+
+        private final int contextSize;
+        private final int[] ring;
+        private final int mask;
+        // The position of the current token
+        private int position = 0;
+        // One past the position of the last token read
+        private int end = 0;
+        private boolean done = false;
+
+        private Window(int contextSize) {
+            this.contextSize = contextSize;
+            // Room for the pre-context, the current token and the post-context
+            this.ring = new int[Integer.highestOneBit(contextSize * 2 + 1) * 2];
+            this.mask = ring.length - 1;
+        }
+
+        private int get(int position) {
+            return ring[position & mask];
+        }
+
+        /**
+         * Reads from the stream until the current token's post-context is full.
+         */
+        private void fill(TokenStream stream) {
+            while (!done && end <= position + contextSize) {
+                int next = stream.next();
+                if (next < 0) {
+                    done = true;
+                } else {
+                    ring[end++ & mask] = next;
                 }
             }
-        } else if (tokenIterator == null) {
-            // We're done
-            token = null;
-        } else {
-            while (tokenIterator != null && !tokenIterator.hasNext()) {
-                // Move to next chunk
-                while (tokenIterator != null && !chunkIterator.hasNext()) {
-                    // Move to next sentence
-                    token = Sentence.SENTENCE_SEPARATOR;
-                    if (!sentenceIterator.hasNext()) {
-                        // End of corpus
-                        tokenIterator = null;
-                    } else {
-                        chunkIterator = sentenceIterator.next().iterator();
+        }
+    }
+
+    /**
+     * The spaces counted by one pass over the corpus.
+     */
+    private static class Sweep {
+
+        private final ContextSpace[] spaces;
+        private final List<Set<BaseForm>> targets;
+        // The targets of every space, so most tokens are only looked up once
+        private final Set<BaseForm> allTargets = new HashSet<BaseForm>();
+        // The same targets, by their index in the corpus dictionary
+        private final BitSet[] targetIds;
+        private final BitSet allTargetIds = new BitSet();
+        // The largest context size of any space
+        private int contextSize = 0;
+        // The spaces that have the same targets and weights, smallest context size first
+        private final int[][] families;
+        // The distinct context sizes in each family, in ascending order
+        private final int[][] bandSizes;
+        // The band for each distance in each family, starting at a distance of one
+        private final int[][] bandOf;
+        // The band that each space's context size ends at
+        private final int[] bands;
+        // The weight of a token at each distance, for each space
+        private final double[][] weights;
+
+        private Sweep(List<ContextSpace> spaces, List<? extends Collection<BaseForm>> targets) {
+            this.spaces = spaces.toArray(new ContextSpace[spaces.size()]);
+            this.targets = new ArrayList<Set<BaseForm>>(spaces.size());
+            this.targetIds = new BitSet[spaces.size()];
+            this.weights = new double[spaces.size()][];
+            BaseFormDictionary dictionary = this.spaces[0].corpus.getDictionary();
+            for (int i = 0; i < this.spaces.length; i++) {
+                this.targets.add(new HashSet<BaseForm>(targets.get(i)));
+                allTargets.addAll(targets.get(i));
+                contextSize = Math.max(contextSize, this.spaces[i].contextSize);
+                weights[i] = this.spaces[i].getWeights();
+                targetIds[i] = new BitSet();
+                for (BaseForm target : this.targets.get(i)) {
+                    // A mapped corpus only adds its base forms to the dictionary as they are read
+                    targetIds[i].set(dictionary.getInstance(target.getValue()).getIndex());
+                }
+                allTargetIds.or(targetIds[i]);
+            }
+
+            List<int[]> familyList = new ArrayList<int[]>();
+            boolean[] grouped = new boolean[this.spaces.length];
+            for (int i = 0; i < this.spaces.length; i++) {
+                if (!grouped[i]) {
+                    List<Integer> family = new ArrayList<Integer>();
+                    for (int j = i; j < this.spaces.length; j++) {
+                        if (!grouped[j] && this.targets.get(j).equals(this.targets.get(i)) && (i == j || this.spaces[j].canNestWith(this.spaces[i]))) {
+                            grouped[j] = true;
+                            family.add(j);
+                        }
+                    }
+                    Collections.sort(family, new Comparator<Integer>() {
+                        public int compare(Integer a, Integer b) {
+                            return Sweep.this.spaces[a].contextSize - Sweep.this.spaces[b].contextSize;
+                        }
+                    });
+                    int[] members = new int[family.size()];
+                    for (int j = 0; j < members.length; j++) {
+                        members[j] = family.get(j);
                     }
+                    familyList.add(members);
                 }
-                if (tokenIterator != null && chunkIterator.hasNext()) {
-                    tokenIterator = chunkIterator.next().iterator();
+            }
+            families = familyList.toArray(new int[familyList.size()][]);
+
+            bandSizes = new int[families.length][];
+            bandOf = new int[families.length][];
+            bands = new int[this.spaces.length];
+            for (int f = 0; f < families.length; f++) {
+                int[] sizes = new int[families[f].length];
+                int sizeCount = 0;
+                for (int i : families[f]) {
+                    int size = this.spaces[i].contextSize;
+                    if (sizeCount == 0 || sizes[sizeCount - 1] != size) {
+                        sizes[sizeCount++] = size;
+                    }
+                    bands[i] = sizeCount - 1;
+                }
+                bandSizes[f] = Arrays.copyOf(sizes, sizeCount);
+                bandOf[f] = new int[sizes[sizeCount - 1] + 1];
+                int band = 0;
+                for (int distance = 1; distance < bandOf[f].length; distance++) {
+                    while (sizes[band] < distance) {
+                        band++;
+                    }
+                    bandOf[f][distance] = band;
                 }
             }
         }
+    }
 
-        if (tokenIterator != null && tokenIterator.hasNext() && token == null) {
-            token = tokenIterator.next();
+    /**
+     * @return the number of entries the given sentence adds to the token stream
+     */
+    private int getStreamLength(int sentence) {
+        int length = 0;
+        int chunkStart = corpus.getChunkStart(sentence);
+        int chunkEnd = corpus.getChunkEnd(sentence);
+        if (chunkEnd > chunkStart) {
+            length = corpus.getTokenEnd(chunkEnd - 1) - corpus.getTokenStart(chunkStart);
+            if (length > 0) {
+                // The sentence separator before the sentence
+                length++;
+            }
         }
+        return length;
+    }
 
-        return token;
+    /**
+     * This class reads the base form indexes of the corpus as a single stream.
+     * Each sentence is preceded by a sentence separator, and
+     * a final separator follows the last sentence.
+     */
+    private class TokenStream {
 
+        // The separator has to come from the corpus dictionary like every other column
+        private final int separator = corpus.getDictionary().getInstance(Sentence.SENTENCE_SEPARATOR.getBaseForm().getValue()).getIndex();
+        private int sentence;
+        private int token = 0;
+        private int tokenEnd = 0;
+        private boolean started = false;
+
+        private TokenStream(int firstSentence) {
+            this.sentence = firstSentence - 1;
+        }
+
+        /**
+         * @return the index of the next base form, or -1 at the end of the corpus
+         */
+        private int next() {
+            int baseForm = -1;
+            if (token < tokenEnd) {
+                baseForm = corpus.getBaseForm(token++).getIndex();
+            } else if (sentence < corpus.getSentenceCount()) {
+                // Move to the next sentence that has tokens
+                sentence++;
+                while (sentence < corpus.getSentenceCount() && getStreamLength(sentence) == 0) {
+                    sentence++;
+                }
+                if (sentence < corpus.getSentenceCount()) {
+                    token = corpus.getTokenStart(corpus.getChunkStart(sentence));
+                    tokenEnd = corpus.getTokenEnd(corpus.getChunkEnd(sentence) - 1);
+                    baseForm = separator;
+                    started = true;
+                } else if (started) {
+                    // End of corpus
+                    baseForm = separator;
+                }
+            }
+            return baseForm;
+        }
     }
 }
@@ -35,17 +35,17 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.parsers.DocumentBuilder;
@@ -55,7 +55,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-public class Corpus extends LexicalItem implements Iterable<Sentence>, Serializable, LexicalItemListener {
+public class Corpus extends LexicalItem implements Iterable<Sentence>, IndexedCorpus, Serializable {
 
     private final ArrayList<Sentence> sentences = new ArrayList<Sentence>();
 
@@ -63,14 +63,38 @@ public class Corpus extends LexicalItem implements Iterable<Sentence>, Serializa
     private final LinkedHashMap<Integer, Chunk> chunkMap = new LinkedHashMap<Integer, Chunk>();
     private final LinkedHashMap<Integer, Sentence> sentenceMap = new LinkedHashMap<Integer, Sentence>();
 
+    // Built the first time one of the IndexedCorpus methods is called
+    private transient volatile Index index;
+
+    private final BaseFormDictionary dictionary;
 
     public Corpus() {
+        this(BaseForm.getDictionary());
+    }
+
+    public Corpus(BaseFormDictionary dictionary) {
         super();
-        LexicalItem.addListener(this);
+        this.dictionary = dictionary;
     }
 
+    public BaseFormDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Adds a sentence, along with its chunks and tokens, to this corpus.
+     * This method is not thread safe.
+     */
     public void addSentence(Sentence sentence) {
         sentences.add(sentence);
+        sentenceMap.put(sentence.getId(), sentence);
+        for (Chunk chunk : sentence) {
+            chunkMap.put(chunk.getId(), chunk);
+            for (Token token : chunk) {
+                tokenMap.put(token.getId(), token);
+            }
+        }
+        index = null;
     }
 
     public List<Sentence> getSetences() {
@@ -100,39 +124,73 @@ public class Corpus extends LexicalItem implements Iterable<Sentence>, Serializa
     }
 
     public int getChunkCount() {
-        return chunkMap.size();
+        return getIndex().parents.length;
     }
 
     public int getTokenCount() {
-        return tokenMap.size();
+        return getIndex().tokens.length;
     }
 
     public int getSentenceCount() {
-        return sentenceMap.size();
+        return sentences.size();
     }
 
     public int getLexicalItemCount() {
         return getChunkCount() + getTokenCount() + getSentenceCount();
     }
 
-    public void lexicalItemCreated(LexicalItem lexicalItem) {
-        if (lexicalItem instanceof Token) {
-            synchronized(tokenMap) {
-                tokenMap.put(lexicalItem.getId(), (Token) lexicalItem);
-            }
-        } else if (lexicalItem instanceof Chunk) {
-            synchronized(chunkMap) {
-                chunkMap.put(lexicalItem.getId(), (Chunk) lexicalItem);
-            }
-        } else if (lexicalItem instanceof Sentence) {
-            synchronized(sentences) {
-                sentenceMap.put(lexicalItem.getId(), (Sentence) lexicalItem);
+    private Index getIndex() {
+        Index i = index;
+        if (i == null) {
+            synchronized (this) {
+                i = index;
+                if (i == null) {
+                    i = new Index(sentences);
+                    index = i;
+                }
             }
         }
+        return i;
+    }
+
+    public int getChunkStart(int sentence) {
+        return getIndex().sentenceChunks[sentence];
+    }
+
+    public int getChunkEnd(int sentence) {
+        return getIndex().sentenceChunks[sentence + 1];
+    }
+
+    public int getTokenStart(int chunk) {
+        return getIndex().chunkTokens[chunk];
+    }
+
+    public int getTokenEnd(int chunk) {
+        return getIndex().chunkTokens[chunk + 1];
+    }
+
+    public int getParent(int chunk) {
+        return getIndex().parents[chunk];
+    }
+
+    public int getHead(int chunk) {
+        return getIndex().heads[chunk];
+    }
+
+    public int getFunc(int chunk) {
+        return getIndex().funcs[chunk];
+    }
+
+    public BaseForm getBaseForm(int token) {
+        return getIndex().tokens[token].getBaseForm();
+    }
+
+    public BaseForm getPosForm(int token) {
+        return getIndex().tokens[token].getPosForm();
     }
 
     public void printStats(PrintWriter out) {
-        out.printf("Stats:%n--------------------------------%n    Sentences: %,d%n       Chunks: %,d%n       Tokens: %,d%n   Base Forms: %,d%nLexical Items: %,d%n", getSentenceCount(), getChunkCount(), getTokenCount(), BaseForm.getBaseFormCount(), getLexicalItemCount());
+        out.printf("Stats:%n--------------------------------%n    Sentences: %,d%n       Chunks: %,d%n       Tokens: %,d%n   Base Forms: %,d%nLexical Items: %,d%n", getSentenceCount(), getChunkCount(), getTokenCount(), dictionary.size(), getLexicalItemCount());
         out.flush();
     }
 
@@ -151,22 +209,29 @@ public class Corpus extends LexicalItem implements Iterable<Sentence>, Serializa
         }
     }
 
+    /**
+     * Writes this corpus in the columnar binary format.
+     * @see BinaryCorpus
+     */
     public void writeBinary(File file) throws FileNotFoundException, IOException {
-        writeBinary(new FileOutputStream(file));
+        OutputStream out = new FileOutputStream(file);
+        try {
+            writeBinary(out);
+        } finally {
+            out.close();
+        }
     }
 
     public void writeBinary(OutputStream out) throws IOException {
-        ObjectOutputStream o = new ObjectOutputStream(out);
-        o.writeObject(this);
+        BinaryCorpus.write(this, out);
     }
 
-    public static Corpus fromBinary(File file) throws IOException, ClassNotFoundException {
-        return fromBinary(new FileInputStream(file));
+    public static Corpus fromBinary(File file) throws IOException {
+        return BinaryCorpus.read(file);
     }
 
-    public static Corpus fromBinary(InputStream in) throws IOException, ClassNotFoundException {
-        ObjectInputStream i = new ObjectInputStream(in);
-        return (Corpus) i.readObject();
+    public static Corpus fromBinary(InputStream in) throws IOException {
+        return BinaryCorpus.read(in);
     }
 
     public static Corpus fromXML(Element element) {
@@ -183,7 +248,40 @@ public class Corpus extends LexicalItem implements Iterable<Sentence>, Serializa
         return corpus;
     }
 
+    /**
+     * Parses a Cabocha XML file one sentence at a time.
+     * @see XMLCorpusReader
+     */
     public static Corpus parseXML(File file) {
+        Corpus corpus = null;
+        try {
+            corpus = new XMLCorpusReader(file).readCorpus();
+        } catch (Exception ex) {
+            Logger.getLogger(Corpus.class.getName()).log(Level.SEVERE, String.format("Couldn't Parse XML Corpus: %s", ex.toString()), ex);
+        }
+        return corpus;
+    }
+
+    /**
+     * Parses a Cabocha lattice file (cabocha -f 1) one sentence at a time.
+     * @see LatticeCorpusReader
+     */
+    public static Corpus parseLattice(File file) {
+        Corpus corpus = null;
+        try {
+            corpus = new LatticeCorpusReader(file).readCorpus();
+        } catch (Exception ex) {
+            Logger.getLogger(Corpus.class.getName()).log(Level.SEVERE, String.format("Couldn't Parse Lattice Corpus: %s", ex.toString()), ex);
+        }
+        return corpus;
+    }
+
+    /**
+     * Parses a Cabocha XML file by first building a DOM of the entire document.
+     * This needs several times the size of the file in memory, so parseXML()
+     * should be used instead for anything but small files.
+     */
+    public static Corpus parseXMLDocument(File file) {
         Corpus corpus = null;
         try {
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -198,4 +296,70 @@ public class Corpus extends LexicalItem implements Iterable<Sentence>, Serializa
 
 
 
+    /**
+     * Flattens the sentences of this corpus into arrays so that it can be
+     * walked by index like the other IndexedCorpus implementations.
+     */
+    private static class Index {
+
+        private final Token[] tokens;
+        private final int[] sentenceChunks;
+        private final int[] chunkTokens;
+        private final int[] parents;
+        private final int[] heads;
+        private final int[] funcs;
+
+        private Index(List<Sentence> sentences) {
+            int chunkCount = 0;
+            int tokenCount = 0;
+            for (Sentence sentence : sentences) {
+                for (Chunk chunk : sentence) {
+                    chunkCount++;
+                    tokenCount += chunk.getTokens().size();
+                }
+            }
+            tokens = new Token[tokenCount];
+            sentenceChunks = new int[sentences.size() + 1];
+            chunkTokens = new int[chunkCount + 1];
+            parents = new int[chunkCount];
+            heads = new int[chunkCount];
+            funcs = new int[chunkCount];
+
+            int s = 0;
+            int c = 0;
+            int t = 0;
+            Map<Integer, Integer> localIds = new HashMap<Integer, Integer>();
+            for (Sentence sentence : sentences) {
+                sentenceChunks[s++] = c;
+                localIds.clear();
+                int first = c;
+                for (Chunk chunk : sentence) {
+                    localIds.put(chunk.getLocalId(), c);
+                    chunkTokens[c] = t;
+                    heads[c] = -1;
+                    funcs[c] = -1;
+                    Token head = chunk.getHead();
+                    Token func = chunk.getFunc();
+                    for (Token token : chunk) {
+                        if (token == head) {
+                            heads[c] = t;
+                        }
+                        if (token == func) {
+                            funcs[c] = t;
+                        }
+                        tokens[t++] = token;
+                    }
+                    c++;
+                }
+                c = first;
+                for (Chunk chunk : sentence) {
+                    Integer parent = localIds.get(chunk.getLink());
+                    parents[c++] = parent == null ? -1 : parent;
+                }
+            }
+            sentenceChunks[s] = c;
+            chunkTokens[c] = t;
+        }
+    }
+
 }
@@ -0,0 +1,97 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.io.IOException;
+
+/**
+ * This class reads a parsed corpus one sentence at a time.
+ * Only the sentence currently being read is held in memory by the reader,
+ * so callers that process each sentence as it arrives never need to hold
+ * the whole corpus.
+ */
+public abstract class CorpusReader {
+
+    private BaseFormDictionary dictionary = new BaseFormDictionary();
+
+    /**
+     * By default each reader interns its base forms in a new dictionary,
+     * which is then owned by the corpus it reads.
+     */
+    public BaseFormDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(BaseFormDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Reads the next sentence.
+     * @return the next sentence, or null if there are no more sentences
+     */
+    public abstract Sentence readSentence() throws IOException;
+
+    public abstract void close() throws IOException;
+
+    public Corpus readCorpus() throws IOException {
+        Corpus corpus = new Corpus(dictionary);
+        try {
+            Sentence sentence = readSentence();
+            while (sentence != null) {
+                corpus.addSentence(sentence);
+                sentence = readSentence();
+            }
+        } finally {
+            close();
+        }
+        return corpus;
+    }
+
+    /**
+     * Reads every remaining sentence into a PackedCorpus.
+     * Only one Sentence object exists at a time.
+     */
+    public PackedCorpus readPackedCorpus() throws IOException {
+        PackedCorpus corpus = new PackedCorpus(dictionary);
+        try {
+            Sentence sentence = readSentence();
+            while (sentence != null) {
+                corpus.addSentence(sentence);
+                sentence = readSentence();
+            }
+        } finally {
+            close();
+        }
+        corpus.trimToSize();
+        return corpus;
+    }
+
+}
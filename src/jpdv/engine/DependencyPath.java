@@ -0,0 +1,124 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.util.AbstractList;
+
+/**
+ * A dependency path that is built up and taken apart one base form at a time, like a stack.
+ *
+ * Along with the base forms, the path keeps their indexes and a hash of each prefix,
+ * so that it can be found in a {@link PathTable} without building its string.
+ * Adding and removing base forms doesn't allocate anything once the path has grown to its longest.
+ */
+class DependencyPath extends AbstractList<BaseForm> {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int HASH_SEED = 0x811C9DC5;
+    private static final int HASH_PRIME = 0x01000193;
+
+    private BaseForm[] forms = new BaseForm[INITIAL_CAPACITY];
+    private int[] indexes = new int[INITIAL_CAPACITY];
+    // hashes[i] is the hash of the first i base forms
+    private int[] hashes = new int[INITIAL_CAPACITY + 1];
+    private int length = 0;
+
+    DependencyPath() {
+        hashes[0] = HASH_SEED;
+    }
+
+    /**
+     * Adds a base form to the end of the path.
+     * All of the base forms in a path should come from the same dictionary.
+     */
+    void push(BaseForm baseForm) {
+        if (length == forms.length) {
+            grow();
+        }
+        forms[length] = baseForm;
+        indexes[length] = baseForm.getIndex();
+        hashes[length + 1] = (hashes[length] ^ baseForm.getIndex()) * HASH_PRIME;
+        length++;
+    }
+
+    /**
+     * Removes the base form at the end of the path.
+     */
+    void pop() {
+        length--;
+        forms[length] = null;
+    }
+
+    /**
+     * Removes base forms from the end of the path until it has the given length.
+     */
+    void truncate(int newLength) {
+        while (length > newLength) {
+            pop();
+        }
+    }
+
+    /**
+     * @return the hash of the whole path
+     */
+    int hash() {
+        return hashes[length];
+    }
+
+    int getIndex(int position) {
+        return indexes[position];
+    }
+
+    @Override
+    public BaseForm get(int position) {
+        if (position < 0 || position >= length) {
+            throw new IndexOutOfBoundsException(String.format("Position: %d, Length: %d", position, length));
+        }
+        return forms[position];
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    private void grow() {
+        int capacity = forms.length * 2;
+        BaseForm[] newForms = new BaseForm[capacity];
+        System.arraycopy(forms, 0, newForms, 0, length);
+        forms = newForms;
+        int[] newIndexes = new int[capacity];
+        System.arraycopy(indexes, 0, newIndexes, 0, length);
+        indexes = newIndexes;
+        int[] newHashes = new int[capacity + 1];
+        System.arraycopy(hashes, 0, newHashes, 0, length + 1);
+        hashes = newHashes;
+    }
+}
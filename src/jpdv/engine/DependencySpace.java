@@ -29,61 +29,257 @@ wish to do so, delete this exception statement from your version.
 
 package jpdv.engine;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Deque;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jpdv.functions.PathValueCache;
+import jpdv.vectorspace.SparseMatrix;
+import jpdv.vectorspace.SparseVector;
+import jpdv.functions.Function;
 import jpdv.functions.FunctionExecutor;
+import jpdv.functions.FunctionType;
 
 /**
- * This class has three (or more) threads.
+ * This class has two (or more) threads.
  * One thread puts new trees into the processing queue.
  * One (or more) thread(s) then pull items off the processing queue and process them.
- * A final thread updates the vector space itself with the results.
+ * Each of those threads counts into a table of its own, and the tables
+ * are added to the vector space once every thread has finished.
+ *
+ * The threads wait on the queue rather than polling it.  When the first thread
+ * runs out of work it puts a marker on the queue for each of the others.
+ *
+ * Work is handed on in batches, and the queue only holds a fixed number of
+ * batches, so the first thread waits for the others instead of filling memory.
+ *
+ * Several spaces can be counted in the same pass with {@link #generateSpaces(List, List)}.
+ * Each path is then followed once for all of the spaces that share the same
+ * limits on path length and part of speech.
  * @author Andrew Young <andrew at vaelen.org>
  */
 public class DependencySpace extends VectorSpace {
 
     public static final char PATH_SEPARATOR = '⇄';
-    public static final int PROCESSING_QUEUE_CAPACITY = Integer.MAX_VALUE;
-    public static final int UPDATE_QUEUE_CAPACITY = Integer.MAX_VALUE;
-    public static final long SLEEP_TIME = 1000L;
+    // The number of batches the queue can hold before the TargetFinder has to wait
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    // The number of chunks handed from one thread to the next at a time
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    // The marker that tells a ChunkProcessor that there is no more work for it
+    private static final int[] END_OF_CHUNKS = new int[0];
+    // Each chunk in a batch takes up this many ints
+    private static final int BATCH_STRIDE = 3;
+
+    // Each batch holds the first chunk of a sentence, the chunk after its last one,
+    // and a chunk in the sentence that contains a target, for each chunk in the batch.
+    protected BlockingQueue<int[]> processingQueue;
+    // The first thing that went wrong in the pipeline, if anything did
+    private AtomicReference<Throwable> failure;
+
+    // The root of the sentence, from the corpus dictionary like the rest of each path
+    private BaseForm separator;
+    private int threads = 1;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxPathLength = 0;
+    private Set<String> allowedPOS = null;
+
+    public DependencySpace(IndexedCorpus corpus) {
+        super(corpus);
+    }
 
-    protected final AtomicBoolean doneFindingTargets = new AtomicBoolean(false);
-    protected final AtomicBoolean doneProcessing = new AtomicBoolean(false);
-    protected final AtomicBoolean doneUpdating = new AtomicBoolean(false);
+    /**
+     * @return the number of ChunkProcessor threads
+     */
+    public int getThreads() {
+        return threads;
+    }
 
-    protected final Deque<Deque<Chunk>> processingQueue = new LinkedBlockingDeque<Deque<Chunk>>(PROCESSING_QUEUE_CAPACITY);
-    protected final Deque<Deque<BaseForm>> updateQueue = new LinkedBlockingDeque<Deque<BaseForm>>(UPDATE_QUEUE_CAPACITY);
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
 
-    public DependencySpace(Corpus corpus) {
-        super(corpus);
+    /**
+     * @return the number of batches that the processing queue can hold
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return the number of chunks in each batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the largest number of base forms in a path, or zero if there is no limit
+     */
+    public int getMaxPathLength() {
+        return maxPathLength;
+    }
+
+    /**
+     * Paths are cut off while they are being followed, so chunks
+     * beyond the limit are never visited.
+     * The target's part of speech and the root marker each count as one base form.
+     */
+    public void setMaxPathLength(int maxPathLength) {
+        this.maxPathLength = maxPathLength;
+    }
+
+    /**
+     * @return the parts of speech that a path may pass through, or null if they are all allowed
+     */
+    public Set<String> getAllowedPOS() {
+        return allowedPOS;
+    }
+
+    /**
+     * Paths stop at chunks whose head word has any other part of speech,
+     * so nothing beyond those chunks is visited.  The target itself is never checked.
+     * @param allowedPOS the parts of speech, such as 名詞, or null to allow them all
+     */
+    public void setAllowedPOS(Collection<String> allowedPOS) {
+        this.allowedPOS = allowedPOS == null ? null : new HashSet<String>(allowedPOS);
     }
 
     @Override
-    public void generateSpace(final Collection<BaseForm> targets) {
-        TargetFinder targetFinder = new TargetFinder(targets);
-        targetFinder.start();
+    public void generateSpace(Collection<BaseForm> targets) {
+        generateSpaces(Collections.singletonList(this), Collections.singletonList(targets));
+    }
+
+    /**
+     * Counts several spaces over the same corpus in a single pass.
+     * Each space only counts paths from its own targets, with its own limits.
+     * The threads, queue settings and target index of the first space are used for all of them.
+     * @param spaces the spaces to count, which must all use the same corpus
+     * @param targets the targets for each space
+     * @throws IllegalStateException if any thread fails, in which case no counts are added to the spaces
+     */
+    static void generateSpaces(List<DependencySpace> spaces, List<? extends Collection<BaseForm>> targets) {
+        spaces.get(0).generateSpaces(spaces.toArray(new DependencySpace[spaces.size()]), targets);
+    }
 
-        ChunkProcessor chunkProcessor = new ChunkProcessor(targets);
-        chunkProcessor.start();
+    private void generateSpaces(DependencySpace[] spaces, List<? extends Collection<BaseForm>> targets) {
+        int processorCount = Math.max(1, threads);
+        processingQueue = new ArrayBlockingQueue<int[]>(Math.max(1, queueCapacity));
+        failure = new AtomicReference<Throwable>();
+        separator = corpus.getDictionary().getInstance(Sentence.SENTENCE_SEPARATOR.getBaseForm().getValue());
+        List<Set<BaseForm>> targetSets = new ArrayList<Set<BaseForm>>(spaces.length);
+        Set<BaseForm> allTargets = new HashSet<BaseForm>();
+        for (int i = 0; i < spaces.length; i++) {
+            targetSets.add(new HashSet<BaseForm>(targets.get(i)));
+            allTargets.addAll(targets.get(i));
+        }
+        int[][] groups = getGroups(spaces);
+        final List<Thread> pipeline = new ArrayList<Thread>();
+        List<ChunkProcessor> processors = new ArrayList<ChunkProcessor>(processorCount);
+        pipeline.add(new TargetFinder(allTargets, getTargetSentences(allTargets), processorCount));
+        for (int i = 0; i < processorCount; i++) {
+            Counter[] counters = new Counter[spaces.length];
+            for (int j = 0; j < counters.length; j++) {
+                counters[j] = new Counter(spaces[j], targetSets.get(j));
+            }
+            ChunkProcessor processor = new ChunkProcessor(allTargets, counters, groups);
+            processors.add(processor);
+            pipeline.add(processor);
+        }
 
-        UpdateProcessor updateProcessor = new UpdateProcessor();
-        updateProcessor.start();
+        // If any thread fails, the threads on either side of it could wait forever.
+        Thread.UncaughtExceptionHandler stopPipeline = new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread thread, Throwable ex) {
+                Logger.getLogger(DependencySpace.class.getName()).log(Level.SEVERE, String.format("Couldn't Generate Dependency Space: %s", ex.toString()), ex);
+                failure.compareAndSet(null, ex);
+                for (Thread other : pipeline) {
+                    other.interrupt();
+                }
+            }
+        };
+        for (Thread thread : pipeline) {
+            thread.setUncaughtExceptionHandler(stopPipeline);
+            thread.start();
+        }
+        try {
+            for (Thread thread : pipeline) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Logger.getLogger(DependencySpace.class.getName()).log(Level.SEVERE, null, ex);
+            failure.compareAndSet(null, ex);
+            for (Thread thread : pipeline) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+        }
+        processingQueue = null;
+        // The tables of a pipeline that was stopped early are missing counts, so none of them are kept
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new IllegalStateException(String.format("Couldn't Generate Dependency Space: %s", cause.toString()), cause);
+        }
+        for (ChunkProcessor processor : processors) {
+            for (Counter counter : processor.counters) {
+                counter.space.mergeCounts(counter.table);
+            }
+        }
+    }
 
-        while(!doneUpdating.get()) {
-            try {
-                Thread.sleep(SLEEP_TIME);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(DependencySpace.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Spaces with the same limits and context selection function can follow each path together.
+     * @return the positions of the spaces in each group
+     */
+    private static int[][] getGroups(DependencySpace[] spaces) {
+        List<int[]> groups = new ArrayList<int[]>();
+        boolean[] grouped = new boolean[spaces.length];
+        for (int i = 0; i < spaces.length; i++) {
+            if (!grouped[i]) {
+                int[] group = new int[spaces.length];
+                int size = 0;
+                for (int j = i; j < spaces.length; j++) {
+                    if (!grouped[j] && spaces[j].hasSameLimits(spaces[i])) {
+                        grouped[j] = true;
+                        group[size++] = j;
+                    }
+                }
+                groups.add(Arrays.copyOf(group, size));
             }
         }
+        return groups.toArray(new int[groups.size()][]);
     }
 
-    private BaseForm createPathForm(Collection<BaseForm> path) {
+    private boolean hasSameLimits(DependencySpace other) {
+        boolean ret = maxPathLength == other.maxPathLength
+                && getFunction(FunctionType.CONTEXT_SELECTION) == other.getFunction(FunctionType.CONTEXT_SELECTION);
+        if (ret) {
+            ret = allowedPOS == null ? other.allowedPOS == null : allowedPOS.equals(other.allowedPOS);
+        }
+        return ret;
+    }
+
+    /**
+     * Builds the string for a path and interns it in this space's dictionary.
+     * This is done once for each distinct path found by each ChunkProcessor.
+     */
+    private BaseForm createPathForm(DependencyPath path) {
         StringBuilder sb = new StringBuilder();
         for (BaseForm node : path) {
             sb.append(node.getValue());
@@ -95,64 +291,7 @@ public class DependencySpace extends VectorSpace {
         if(logger.isLoggable(Level.FINE)) {
             logger.log(Level.FINE, String.format("Created Path: %s", sb.toString()));
         }
-        return BaseForm.getInstance(sb.toString());
-    }
-
-    private void buildPaths(BaseForm target, Chunk last, Chunk current, Deque<Chunk> stack, Deque<BaseForm> path, Deque<BaseForm> updates) {
-        // Add our current path if this isn't the first chunk
-        if(!last.equals(current)) {
-            if(FunctionExecutor.executeContextSelectionFunction(path)) {
-                BaseForm pathForm = createPathForm(path);
-                updates.add(pathForm);
-            }
-        }
-        // Follow all children except the one we came from.
-        for(Chunk child: current.getChildren()) {
-            if(!child.equals(last)) {
-                Token head = child.getHead();
-                if (head != null) {
-                    Token func = child.getFunc();
-                    if (func != null) {
-                        path.add(func.getBaseForm());
-                    }
-                    path.addLast(head.getPosForm());
-                    buildPaths(target, current, child, null, path, updates);
-                    path.removeLast(); // Remove the headword
-                    if (func != null) {
-                        path.removeLast(); // Remove the edge
-                    }
-                }
-            }
-        }
-
-        if (stack != null) {
-            // When decending to children, the stack is null to prevent duplicate work.
-            if (stack.isEmpty()) {
-                // This is the root node of the sentence.
-                path.addLast(Sentence.SENTENCE_SEPARATOR.getBaseForm());
-                if(FunctionExecutor.executeContextSelectionFunction(path)) {
-                    BaseForm rootPathForm = createPathForm(path);
-                    updates.add(rootPathForm);
-                }
-                path.removeLast();
-            } else {
-                // Now process the parent
-                Chunk parent = stack.pop();
-                Token head = parent.getHead();
-                if(head != null) {
-                    Token func = current.getFunc();
-                    if (func != null) {
-                        path.add(func.getBaseForm());
-                    }
-                    path.addLast(head.getPosForm());
-                    buildPaths(target, current, parent, stack, path, updates);
-                    path.removeLast(); // Remove the headword
-                    if(func != null) {
-                        path.removeLast();  // Remove the edge
-                    }
-                }
-            }
-        }
+        return dictionary.getInstance(sb.toString());
     }
 
     /**
@@ -160,122 +299,336 @@ public class DependencySpace extends VectorSpace {
      */
     private class TargetFinder extends Thread {
 
-        private final Collection<BaseForm> targets;
-
-        public TargetFinder(Collection<BaseForm> targets) {
+        private final Set<BaseForm> targets;
+        // The sentences to look in, or null to look in all of them
+        private final int[] sentences;
+        // The number of ChunkProcessors to send an end marker to
+        private final int processorCount;
+        private final ChunkTree tree = new ChunkTree(corpus);
+        // The chunks waiting to be visited
+        private int[] pending = new int[64];
+        private int[] batch = new int[batchSize * BATCH_STRIDE];
+        private int batchLength = 0;
+
+        public TargetFinder(Set<BaseForm> targets, int[] sentences, int processorCount) {
             this.targets = targets;
+            this.sentences = sentences;
+            this.processorCount = processorCount;
         }
 
-        private void lookForTargets(Deque<Chunk> stack, Chunk current) {
-            stack.push(current);
-            for (Token token : current) {
-                if (targets.contains(token.getBaseForm())) {
-                    // Found a target, stop looking
-                    Deque<Chunk> stackCopy = new ArrayDeque<Chunk>(stack);
-                    processingQueue.addLast(stackCopy);
-                    break;
+        /**
+         * Visits every chunk under the root of the loaded sentence, parents before children.
+         */
+        private void lookForTargets() throws InterruptedException {
+            if (pending.length < tree.size()) {
+                pending = new int[Math.max(tree.size(), pending.length * 2)];
+            }
+            int chunkStart = tree.getChunkStart();
+            int chunkEnd = chunkStart + tree.size();
+            int top = 0;
+            pending[top++] = tree.getRoot();
+            while (top > 0) {
+                int current = pending[--top];
+                int chunk = chunkStart + current;
+                for (int token = corpus.getTokenStart(chunk); token < corpus.getTokenEnd(chunk); token++) {
+                    if (targets.contains(corpus.getBaseForm(token))) {
+                        // Found a target, stop looking
+                        addToBatch(chunkStart, chunkEnd, chunk);
+                        break;
+                    }
+                }
+                // Push the children backwards so that they are visited in order
+                for (int i = tree.getChildEnd(current) - 1; i >= tree.getChildStart(current); i--) {
+                    pending[top++] = tree.getChild(i);
                 }
             }
-            for(Chunk child: current.getChildren()) {
-                lookForTargets(stack, child);
+        }
+
+        private void addToBatch(int chunkStart, int chunkEnd, int chunk) throws InterruptedException {
+            batch[batchLength++] = chunkStart;
+            batch[batchLength++] = chunkEnd;
+            batch[batchLength++] = chunk;
+            if (batchLength == batch.length) {
+                processingQueue.put(batch);
+                batch = new int[batchSize * BATCH_STRIDE];
+                batchLength = 0;
             }
-            stack.pop();
         }
 
         @Override
         public void run() {
-
-            Deque<Chunk> stack = new ArrayDeque<Chunk>();
-
-            for(Sentence sentence: corpus) {
-                stack.clear();
-                Chunk root = null;
-                for(Chunk chunk: sentence) {
-                    if(chunk.getLink() == -1) {
-                        // Root chunk
-                        root = chunk;
-                        break;
+            try {
+                int sentenceCount = sentences == null ? corpus.getSentenceCount() : sentences.length;
+                for(int i = 0; i < sentenceCount; i++) {
+                    int sentence = sentences == null ? i : sentences[i];
+                    tree.load(corpus.getChunkStart(sentence), corpus.getChunkEnd(sentence));
+                    if(tree.getRoot() >= 0) {
+                        lookForTargets();
                     }
                 }
-                if(root != null) {
-                    lookForTargets(stack, root);
+                if (batchLength > 0) {
+                    processingQueue.put(Arrays.copyOf(batch, batchLength));
                 }
+
+                // This tells the other threads that there are no more chunks
+                // to process once the current backlog is finished.
+                for (int i = 0; i < processorCount; i++) {
+                    processingQueue.put(END_OF_CHUNKS);
+                }
+            } catch (InterruptedException ex) {
+                Logger.getLogger(DependencySpace.class.getName()).log(Level.SEVERE, null, ex);
+                failure.compareAndSet(null, ex);
             }
+        }
+    }
+
+    /**
+     * The counts that one ChunkProcessor makes for one of the spaces it is generating.
+     */
+    private static class Counter {
+
+        private final DependencySpace space;
+        private final Set<BaseForm> targets;
+        private final SparseMatrix table = new SparseMatrix();
+        private final PathValueCache cache;
+        private final Function selector;
+        // The paths counted for this space, which have its base forms attached
+        private final PathTable paths = new PathTable();
+        // The row of the target being processed
+        private SparseVector row;
+
+        private Counter(DependencySpace space, Set<BaseForm> targets) {
+            this.space = space;
+            this.targets = targets;
+            this.cache = space.createPathValueCache();
+            this.selector = space.getFunction(FunctionType.CONTEXT_SELECTION);
+        }
 
-            // This tells the other threads that there are no more chunks
-            // to process once the current backlog is finished.
-           doneFindingTargets.set(true);
+        private void countPath(DependencyPath path) {
+            int id = paths.getId(path);
+            BaseForm pathForm = paths.getForm(id);
+            if (pathForm == null) {
+                pathForm = space.createPathForm(path);
+                paths.setForm(id, pathForm);
+            }
+            row.add(pathForm.getIndex(), cache.getValue(pathForm));
         }
     }
 
     /**
      * This class processes pending chunks, finding all possible paths from the target.
-     * Then it adds the new paths to the update queue for the UpdateProcessor to handle.
+     * Then it counts the new paths in a table of its own for each space.
      * More than one of these threads can be started to improve the speed of the parsing.
+     *
+     * The paths are followed with explicit stacks rather than by recursion,
+     * and every buffer is reused, so nothing is allocated for each path.
+     * Paths that are too long or pass through the wrong part of speech
+     * are cut off before they are followed any further.
      */
     private class ChunkProcessor extends Thread {
 
-        private final Collection<BaseForm> targets;
-
-        public ChunkProcessor(Collection<BaseForm> targets) {
+        private final Set<BaseForm> targets;
+        private final Counter[] counters;
+        private final int[][] groups;
+        // The counters of the spaces that want the paths being followed
+        private final Counter[] active;
+        private int activeCount = 0;
+        // The limits of the spaces that want the paths being followed
+        private int maxLength;
+        private Set<String> allowed;
+        private Function selector;
+        private final DependencyPath path = new DependencyPath();
+        private final ChunkTree tree = new ChunkTree(corpus);
+        // The target's chunk followed by its parent, and so on up to the root
+        private int[] ancestors = new int[64];
+        private int ancestorCount = 0;
+        // The stack of chunks being descended through, along with the chunk
+        // that led to each one, the position of its next child, and the
+        // number of base forms it added to the path
+        private int[] frameChunks = new int[64];
+        private int[] frameFrom = new int[64];
+        private int[] frameNext = new int[64];
+        private int[] framePushed = new int[64];
+
+        public ChunkProcessor(Set<BaseForm> targets, Counter[] counters, int[][] groups) {
             this.targets = targets;
+            this.counters = counters;
+            this.groups = groups;
+            this.active = new Counter[counters.length];
         }
 
         @Override
         public void run() {
-            while (!doneFindingTargets.get() || !processingQueue.isEmpty()) {
-                Deque<Chunk> stack = processingQueue.pollFirst();
-                if(stack == null) {
-                    try {
-                        sleep(SLEEP_TIME);
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(DependencySpace.class.getName()).log(Level.SEVERE, null, ex);
+            try {
+                int[] batch = processingQueue.take();
+                while (batch != END_OF_CHUNKS) {
+                    for (int i = 0; i < batch.length; i += BATCH_STRIDE) {
+                        processChunk(batch[i], batch[i + 1], batch[i + 2]);
                     }
-                } else if (!stack.isEmpty()) {
-                    // Get the root chunk off the stack
-                    final Chunk root = stack.pop();
-                    // Find all targets in the root chunk.
-                    for(Token token: root) {
-                        BaseForm baseForm = token.getBaseForm();
-                        if(targets.contains(baseForm)) {
-                            // Found a target, use it.
-                            Deque<BaseForm> path = new ArrayDeque<BaseForm>();
-                            path.addLast(token.getPosForm());
-                            Deque<BaseForm> updates = new ArrayDeque<BaseForm>();
-                            updates.addLast(baseForm);
-                            buildPaths(baseForm, root, root, stack, path, updates);
-                            // Add updates to the update queue.
-                            updateQueue.addLast(updates);
+                    batch = processingQueue.take();
+                }
+            } catch (InterruptedException ex) {
+                Logger.getLogger(DependencySpace.class.getName()).log(Level.SEVERE, null, ex);
+                failure.compareAndSet(null, ex);
+            }
+        }
+
+        private void processChunk(int chunkStart, int chunkEnd, int chunk) {
+            tree.load(chunkStart, chunkEnd);
+            if (frameChunks.length <= tree.size()) {
+                int capacity = Math.max(tree.size() + 1, frameChunks.length * 2);
+                ancestors = new int[capacity];
+                frameChunks = new int[capacity];
+                frameFrom = new int[capacity];
+                frameNext = new int[capacity];
+                framePushed = new int[capacity];
+            }
+            // The chunks above the target
+            ancestorCount = 0;
+            int ancestor = chunk;
+            while (ancestor >= chunkStart && ancestor < chunkEnd && ancestorCount < tree.size()) {
+                ancestors[ancestorCount++] = ancestor - chunkStart;
+                ancestor = corpus.getParent(ancestor);
+            }
+            // Find all targets in the chunk.
+            for(int token = corpus.getTokenStart(chunk); token < corpus.getTokenEnd(chunk); token++) {
+                BaseForm baseForm = corpus.getBaseForm(token);
+                if(targets.contains(baseForm)) {
+                    // Found a target, use it for each group of spaces that wants it.
+                    for (int[] group : groups) {
+                        activeCount = 0;
+                        for (int i : group) {
+                            Counter counter = counters[i];
+                            if (counter.targets.contains(baseForm)) {
+                                counter.row = counter.table.getOrCreateRow(baseForm.getIndex());
+                                active[activeCount++] = counter;
+                            }
+                        }
+                        if (activeCount > 0) {
+                            maxLength = counters[group[0]].space.maxPathLength;
+                            allowed = counters[group[0]].space.allowedPOS;
+                            selector = counters[group[0]].selector;
+                            path.push(corpus.getPosForm(token));
+                            buildPaths();
+                            path.pop();
                         }
                     }
                 }
             }
-            doneProcessing.set(true);
         }
-    }
 
-    /** 
-     * This class posts pending updates to the vector space in a thread-safe manner.
-     */
-    private class UpdateProcessor extends Thread {
+        /**
+         * Adds the current path to the current target's row in each space that wants it,
+         * if the context selection function allows it.
+         */
+        private void countPath() {
+            if(FunctionExecutor.executeContextSelectionFunction(selector, path)) {
+                for (int i = 0; i < activeCount; i++) {
+                    active[i].countPath(path);
+                }
+            }
+        }
 
-        @Override
-        public void run() {
-            while (!doneProcessing.get() || !updateQueue.isEmpty()) {
-                Deque<BaseForm> update = updateQueue.pollFirst();
-                if(update == null) {
-                    try {
-                        sleep(SLEEP_TIME);
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(DependencySpace.class.getName()).log(Level.SEVERE, null, ex);
+        /**
+         * Follows every path away from the target's chunk, counting each one.
+         * The path climbs from the target towards the root, and at each chunk
+         * on the way it also descends into every child except the one it came from.
+         */
+        private void buildPaths() {
+            int targetLength = path.size();
+            int last = ancestors[0];
+            int current = ancestors[0];
+            for (int depth = 1; ; depth++) {
+                // Add our current path if this isn't the first chunk
+                if (last != current) {
+                    countPath();
+                }
+                descend(current, last);
+                if (depth >= ancestorCount) {
+                    // This is the root node of the sentence.
+                    if (maxLength <= 0 || path.size() < maxLength) {
+                        path.push(separator);
+                        countPath();
+                        path.pop();
+                    }
+                    break;
+                }
+                // Now process the parent
+                int parent = ancestors[depth];
+                int head = corpus.getHead(tree.getChunkStart() + parent);
+                int func = corpus.getFunc(tree.getChunkStart() + current);
+                if (head < 0 || !canExtend(head, func)) {
+                    break;
+                }
+                if (func >= 0) {
+                    path.push(corpus.getBaseForm(func));
+                }
+                path.push(corpus.getPosForm(head));
+                last = current;
+                current = parent;
+            }
+            path.truncate(targetLength);
+        }
+
+        /**
+         * @param head the head word of the chunk the path would move to
+         * @param func the function word on the edge, or -1 if there isn't one
+         * @return true if the path is allowed to move to the chunk
+         */
+        private boolean canExtend(int head, int func) {
+            boolean ret = true;
+            if (maxLength > 0) {
+                int length = path.size() + (func >= 0 ? 2 : 1);
+                ret = length <= maxLength;
+            }
+            if (ret && allowed != null) {
+                ret = allowed.contains(corpus.getPosForm(head).getValue());
+            }
+            return ret;
+        }
+
+        /**
+         * Counts the paths to every chunk below the given one,
+         * except for those below the chunk the path came from.
+         */
+        private void descend(int top, int from) {
+            int chunkStart = tree.getChunkStart();
+            int depth = 0;
+            frameChunks[0] = top;
+            frameFrom[0] = from;
+            frameNext[0] = tree.getChildStart(top);
+            framePushed[0] = 0;
+            while (depth >= 0) {
+                int current = frameChunks[depth];
+                if (frameNext[depth] < tree.getChildEnd(current)) {
+                    int child = tree.getChild(frameNext[depth]++);
+                    if (child != frameFrom[depth]) {
+                        int head = corpus.getHead(chunkStart + child);
+                        int func = corpus.getFunc(chunkStart + child);
+                        // Skipping the child skips everything below it as well
+                        if (head >= 0 && canExtend(head, func)) {
+                            int pushed = 1;
+                            if (func >= 0) {
+                                path.push(corpus.getBaseForm(func));
+                                pushed++;
+                            }
+                            path.push(corpus.getPosForm(head));
+                            countPath();
+                            depth++;
+                            frameChunks[depth] = child;
+                            frameFrom[depth] = current;
+                            frameNext[depth] = tree.getChildStart(child);
+                            framePushed[depth] = pushed;
+                        }
                     }
                 } else {
-                    // Perform update, first element is the key.
-                    BaseForm key = update.removeFirst();
-                    incrementCount(key, update);
+                    // Done with this chunk's children, so take it off the path
+                    for (int i = 0; i < framePushed[depth]; i++) {
+                        path.pop();
+                    }
+                    depth--;
                 }
             }
-            doneUpdating.set(true);
         }
     }
 
@@ -0,0 +1,84 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.io.PrintWriter;
+
+/**
+ * This interface gives index based access to a parsed corpus.
+ *
+ * Sentences, chunks and tokens are numbered from zero across the whole corpus.
+ * The chunks of a sentence and the tokens of a chunk are always contiguous,
+ * so a sentence or chunk is described by a [start, end) range of indexes.
+ *
+ * The vector spaces walk a corpus through this interface using plain ints,
+ * so an implementation never needs to create Sentence, Chunk or Token objects.
+ */
+public interface IndexedCorpus {
+
+    public int getSentenceCount();
+
+    public int getChunkCount();
+
+    public int getTokenCount();
+
+    /** @return the index of the first chunk in the given sentence */
+    public int getChunkStart(int sentence);
+
+    /** @return one past the index of the last chunk in the given sentence */
+    public int getChunkEnd(int sentence);
+
+    /** @return the index of the first token in the given chunk */
+    public int getTokenStart(int chunk);
+
+    /** @return one past the index of the last token in the given chunk */
+    public int getTokenEnd(int chunk);
+
+    /** @return the index of the chunk the given chunk depends on, or -1 for the root */
+    public int getParent(int chunk);
+
+    /** @return the index of the head token of the given chunk, or -1 if it has none */
+    public int getHead(int chunk);
+
+    /** @return the index of the function token of the given chunk, or -1 if it has none */
+    public int getFunc(int chunk);
+
+    public BaseForm getBaseForm(int token);
+
+    public BaseForm getPosForm(int token);
+
+    /**
+     * @return the dictionary that holds the base forms of this corpus
+     */
+    public BaseFormDictionary getDictionary();
+
+    public void printStats(PrintWriter out);
+
+}
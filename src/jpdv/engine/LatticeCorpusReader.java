@@ -0,0 +1,215 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * This class reads Cabocha's native lattice output (cabocha -f 1) directly,
+ * so that corpora don't have to be converted to XML first.
+ *
+ * Each chunk starts with a line of the form "* id linkRel head/func score",
+ * followed by one tab separated line per token
+ * (surface, reading, base, pos, ctype, cform, ne).  Sentences end with "EOS".
+ */
+public class LatticeCorpusReader extends CorpusReader {
+
+    public static final String DEFAULT_ENCODING = "UTF-8";
+    public static final String END_OF_SENTENCE = "EOS";
+    public static final char CHUNK_MARKER = '*';
+    public static final char FIELD_SEPARATOR = '\t';
+
+    private final BufferedReader in;
+
+    // The position of the next field in the current line
+    private int fieldStart;
+
+    public LatticeCorpusReader(File file) throws FileNotFoundException, UnsupportedEncodingException {
+        this(file, DEFAULT_ENCODING);
+    }
+
+    public LatticeCorpusReader(File file, String encoding) throws FileNotFoundException, UnsupportedEncodingException {
+        this(new InputStreamReader(new FileInputStream(file), encoding));
+    }
+
+    public LatticeCorpusReader(Reader reader) {
+        this.in = new BufferedReader(reader);
+    }
+
+    @Override
+    public Sentence readSentence() throws IOException {
+        Sentence sentence = null;
+        Chunk chunk = null;
+        // Token ids are numbered from the start of the sentence, as in the XML format
+        int tokenId = 0;
+        String line = in.readLine();
+        while (line != null) {
+            if (line.length() == 0) {
+                // Skip blank lines
+            } else if (line.equals(END_OF_SENTENCE)) {
+                if (sentence != null) {
+                    if (chunk != null) {
+                        sentence.addChunk(chunk);
+                    }
+                    sentence.fillTree();
+                    return sentence;
+                }
+            } else if (line.charAt(0) == CHUNK_MARKER && line.length() > 1 && line.charAt(1) == ' ') {
+                if (sentence == null) {
+                    sentence = new Sentence();
+                } else if (chunk != null) {
+                    sentence.addChunk(chunk);
+                }
+                chunk = parseChunk(line, tokenId);
+            } else if (chunk != null) {
+                chunk.addToken(parseToken(line, tokenId));
+                tokenId++;
+            }
+            line = in.readLine();
+        }
+        // The last sentence might not be followed by EOS
+        if (sentence != null) {
+            if (chunk != null) {
+                sentence.addChunk(chunk);
+            }
+            sentence.fillTree();
+        }
+        return sentence;
+    }
+
+    /**
+     * Parses a chunk line such as "* 0 3D 1/2 5.21425015".
+     * The head and func values are relative to the first token of the chunk.
+     */
+    private Chunk parseChunk(String line, int firstTokenId) throws IOException {
+        int length = line.length();
+        int i = skipSpaces(line, 1);
+        // Chunk id
+        int localId = 0;
+        while (i < length && line.charAt(i) != ' ') {
+            localId = localId * 10 + digit(line, i++);
+        }
+        i = skipSpaces(line, i);
+        // Link and relation, such as 3D or -1O
+        boolean negative = i < length && line.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        int link = 0;
+        while (i < length && Character.isDigit(line.charAt(i))) {
+            link = link * 10 + digit(line, i++);
+        }
+        if (negative) {
+            link = -link;
+        }
+        int relStart = i;
+        while (i < length && line.charAt(i) != ' ') {
+            i++;
+        }
+        String rel = line.substring(relStart, i);
+        i = skipSpaces(line, i);
+        // Head and function words
+        int head = 0;
+        while (i < length && line.charAt(i) != '/') {
+            head = head * 10 + digit(line, i++);
+        }
+        i++;
+        int func = 0;
+        while (i < length && line.charAt(i) != ' ') {
+            func = func * 10 + digit(line, i++);
+        }
+        i = skipSpaces(line, i);
+        double score = 0.0;
+        if (i < length) {
+            try {
+                score = Double.parseDouble(line.substring(i).trim());
+            } catch (NumberFormatException ex) {
+                throw new IOException(String.format("Invalid Chunk Score: %s", line));
+            }
+        }
+        return new Chunk(localId, link, rel, score, firstTokenId + head, firstTokenId + func);
+    }
+
+    private Token parseToken(String line, int localId) {
+        fieldStart = 0;
+        // Skip the surface form, since tokens read from XML hold their base form as their value
+        nextField(line);
+        String reading = nextField(line);
+        String base = nextField(line);
+        String pos = nextField(line);
+        String ctype = nextField(line);
+        String cform = nextField(line);
+        String ne = nextField(line);
+        return new Token(getDictionary(), localId, reading, base, pos, ctype, cform, ne, base);
+    }
+
+    private String nextField(String line) {
+        String field = "";
+        if (fieldStart <= line.length()) {
+            int end = line.indexOf(FIELD_SEPARATOR, fieldStart);
+            if (end < 0) {
+                end = line.length();
+            }
+            if (end > fieldStart) {
+                field = line.substring(fieldStart, end);
+            }
+            fieldStart = end + 1;
+        }
+        return field;
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && line.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int digit(String line, int i) throws IOException {
+        char c = line.charAt(i);
+        if (c < '0' || c > '9') {
+            throw new IOException(String.format("Invalid Chunk Line: %s", line));
+        }
+        return c - '0';
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
@@ -30,20 +30,16 @@ wish to do so, delete this exception statement from your version.
 package jpdv.engine;
 
 import java.io.Serializable;
-import java.util.HashSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class LexicalItem implements Comparable<LexicalItem>, Serializable {
 
-    private static final HashSet<LexicalItemListener> listeners = new HashSet<LexicalItemListener>();
-
     private static final AtomicInteger idCounter = new AtomicInteger(0);
 
     private final int id;
 
     protected LexicalItem() {
         id = idCounter.getAndIncrement();
-        fireLexicalItemCreated(this);
     }
 
     public final int getId() {
@@ -75,18 +71,4 @@ public abstract class LexicalItem implements Comparable<LexicalItem>, Serializab
         return this.id - that.id;
     }
 
-    public static void fireLexicalItemCreated(LexicalItem lexicalItem) {
-        for(LexicalItemListener listener: listeners) {
-            listener.lexicalItemCreated(lexicalItem);
-        }
-    }
-
-    public static void addListener(LexicalItemListener listener) {
-        listeners.add(listener);
-    }
-
-    public static void removeListener(LexicalItemListener listener) {
-        listeners.remove(listener);
-    }
-
 }
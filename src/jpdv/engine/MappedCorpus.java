@@ -0,0 +1,279 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class gives read only access to a binary corpus file without loading it.
+ *
+ * The columns of the file are memory mapped and read in place, so opening a
+ * corpus costs almost nothing and several processes working on the same
+ * corpus share a single copy of it in the operating system's page cache.
+ * Only the base forms that are actually used are ever created.
+ *
+ * Each column is mapped separately, so a single column can't be larger
+ * than 2GB (about 500 million tokens).
+ * @see BinaryCorpus
+ */
+public class MappedCorpus implements IndexedCorpus {
+
+    private final File file;
+    private final BaseFormDictionary dictionary;
+
+    private final int stringCount;
+    private final int sentenceCount;
+    private final int chunkCount;
+    private final int tokenCount;
+
+    private final IntBuffer stringOffsets;
+    private final ByteBuffer stringData;
+    private final IntBuffer sentenceChunks;
+    private final IntBuffer chunkTokens;
+    private final IntBuffer chunkIds;
+    private final IntBuffer chunkLinks;
+    private final IntBuffer chunkHeads;
+    private final IntBuffer chunkFuncs;
+    private final IntBuffer tokenIds;
+    private final IntBuffer tokenBases;
+    private final IntBuffer tokenPos;
+
+    // Base forms created so far, indexed by string id
+    private final BaseForm[] baseForms;
+    private final BaseForm[] posForms;
+
+    public MappedCorpus(File file) throws IOException {
+        this(file, new BaseFormDictionary());
+    }
+
+    public MappedCorpus(File file, BaseFormDictionary dictionary) throws IOException {
+        this.file = file;
+        this.dictionary = dictionary;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryCorpus.HEADER_SIZE);
+            BinaryCorpus.checkHeader(header);
+            stringCount = header.getInt();
+            sentenceCount = header.getInt();
+            chunkCount = header.getInt();
+            tokenCount = header.getInt();
+
+            long position = BinaryCorpus.HEADER_SIZE;
+            stringOffsets = mapInts(channel, position, stringCount + 1);
+            position += 4L * (stringCount + 1);
+            int stringLength = stringOffsets.get(stringCount);
+            stringData = channel.map(FileChannel.MapMode.READ_ONLY, position, stringLength);
+            position += stringLength + (4 - stringLength % 4) % 4;
+
+            sentenceChunks = mapInts(channel, position, sentenceCount + 1);
+            position += 4L * (sentenceCount + 1);
+            chunkTokens = mapInts(channel, position, chunkCount + 1);
+            position += 4L * (chunkCount + 1);
+            chunkIds = mapInts(channel, chunkColumn(position, BinaryCorpus.CHUNK_ID), chunkCount);
+            chunkLinks = mapInts(channel, chunkColumn(position, BinaryCorpus.CHUNK_LINK), chunkCount);
+            chunkHeads = mapInts(channel, chunkColumn(position, BinaryCorpus.CHUNK_HEAD), chunkCount);
+            chunkFuncs = mapInts(channel, chunkColumn(position, BinaryCorpus.CHUNK_FUNC), chunkCount);
+            // Skip the chunk columns and the chunk scores
+            position += 4L * chunkCount * BinaryCorpus.CHUNK_COLUMNS + 8L * chunkCount;
+            tokenIds = mapInts(channel, tokenColumn(position, BinaryCorpus.TOKEN_ID), tokenCount);
+            tokenBases = mapInts(channel, tokenColumn(position, BinaryCorpus.TOKEN_BASE), tokenCount);
+            tokenPos = mapInts(channel, tokenColumn(position, BinaryCorpus.TOKEN_POS), tokenCount);
+        } finally {
+            // Mappings stay valid after the channel is closed
+            in.close();
+        }
+        baseForms = new BaseForm[stringCount];
+        posForms = new BaseForm[stringCount];
+    }
+
+    private long chunkColumn(long position, int column) {
+        return position + 4L * chunkCount * column;
+    }
+
+    private long tokenColumn(long position, int column) {
+        return position + 4L * tokenCount * column;
+    }
+
+    private static IntBuffer mapInts(FileChannel channel, long position, int count) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count);
+        return buffer.asIntBuffer();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public BaseFormDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int getSentenceCount() {
+        return sentenceCount;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    public int getChunkStart(int sentence) {
+        return sentenceChunks.get(sentence);
+    }
+
+    public int getChunkEnd(int sentence) {
+        return sentenceChunks.get(sentence + 1);
+    }
+
+    public int getTokenStart(int chunk) {
+        return chunkTokens.get(chunk);
+    }
+
+    public int getTokenEnd(int chunk) {
+        return chunkTokens.get(chunk + 1);
+    }
+
+    public int getParent(int chunk) {
+        int link = chunkLinks.get(chunk);
+        int parent = -1;
+        if (link >= 0) {
+            // Cabocha numbers the chunks of each sentence from zero,
+            // so the parent can usually be found without a search.
+            int guess = chunk - chunkIds.get(chunk) + link;
+            if (guess >= 0 && guess < chunkCount && chunkIds.get(guess) == link && sameSentence(chunk, guess)) {
+                parent = guess;
+            } else {
+                int sentence = getSentence(chunk);
+                for (int c = getChunkStart(sentence); c < getChunkEnd(sentence); c++) {
+                    if (chunkIds.get(c) == link) {
+                        parent = c;
+                        break;
+                    }
+                }
+            }
+        }
+        return parent;
+    }
+
+    private boolean sameSentence(int chunk, int other) {
+        int low = Math.min(chunk, other);
+        int high = Math.max(chunk, other);
+        int sentence = getSentence(low);
+        return high < getChunkEnd(sentence);
+    }
+
+    /**
+     * @return the index of the sentence that contains the given chunk
+     */
+    public int getSentence(int chunk) {
+        int low = 0;
+        int high = sentenceCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (sentenceChunks.get(middle) <= chunk) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getHead(int chunk) {
+        return findToken(chunk, chunkHeads.get(chunk));
+    }
+
+    public int getFunc(int chunk) {
+        return findToken(chunk, chunkFuncs.get(chunk));
+    }
+
+    private int findToken(int chunk, int localId) {
+        int token = -1;
+        for (int t = getTokenStart(chunk); t < getTokenEnd(chunk); t++) {
+            if (tokenIds.get(t) == localId) {
+                token = t;
+                break;
+            }
+        }
+        return token;
+    }
+
+    public BaseForm getBaseForm(int token) {
+        int id = tokenBases.get(token);
+        BaseForm baseForm = baseForms[id];
+        if (baseForm == null) {
+            // The dictionary always returns the same object, so racing threads agree
+            baseForm = dictionary.getInstance(getString(id));
+            baseForms[id] = baseForm;
+        }
+        return baseForm;
+    }
+
+    public BaseForm getPosForm(int token) {
+        int id = tokenPos.get(token);
+        BaseForm posForm = posForms[id];
+        if (posForm == null) {
+            posForm = dictionary.getPOSInstance(getString(id));
+            posForms[id] = posForm;
+        }
+        return posForm;
+    }
+
+    public String getString(int id) {
+        int start = stringOffsets.get(id);
+        int length = stringOffsets.get(id + 1) - start;
+        byte[] bytes = new byte[length];
+        ByteBuffer data = stringData.duplicate();
+        data.position(start);
+        data.get(bytes);
+        try {
+            return new String(bytes, BinaryCorpus.ENCODING);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public void printStats(PrintWriter out) {
+        out.printf("Stats:%n--------------------------------%n    Sentences: %,d%n       Chunks: %,d%n       Tokens: %,d%n   Base Forms: %,d%n      Strings: %,d%n", sentenceCount, chunkCount, tokenCount, dictionary.size(), stringCount);
+        out.flush();
+    }
+
+}
@@ -0,0 +1,385 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class stores a corpus as parallel arrays instead of as one object
+ * per sentence, chunk and token.
+ *
+ * Each token is a row in a set of int columns holding string table ids,
+ * and each chunk is a range of tokens plus int columns for its link, head
+ * and function word.  This takes a small fraction of the memory of Corpus.
+ *
+ * Sentences are only created when the corpus is iterated, one at a time,
+ * so code that expects Sentence objects still works.
+ */
+public class PackedCorpus implements IndexedCorpus, Iterable<Sentence> {
+
+    // Only needed while sentences are being added, so trimToSize() drops it
+    private Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    private final ArrayList<String> strings = new ArrayList<String>();
+    // Base forms indexed by string id, null for strings that aren't base forms
+    private final ArrayList<BaseForm> baseForms = new ArrayList<BaseForm>();
+    private final ArrayList<BaseForm> posForms = new ArrayList<BaseForm>();
+
+    private final IntColumn sentenceChunks = new IntColumn();
+
+    private final IntColumn chunkTokens = new IntColumn();
+    private final IntColumn chunkIds = new IntColumn();
+    private final IntColumn chunkLinks = new IntColumn();
+    private final IntColumn chunkRels = new IntColumn();
+    private final IntColumn chunkHeadIds = new IntColumn();
+    private final IntColumn chunkFuncIds = new IntColumn();
+    private final IntColumn chunkParents = new IntColumn();
+    private final IntColumn chunkHeads = new IntColumn();
+    private final IntColumn chunkFuncs = new IntColumn();
+    private double[] chunkScores = new double[IntColumn.INITIAL_CAPACITY];
+
+    private final IntColumn tokenChunks = new IntColumn();
+    private final IntColumn tokenIds = new IntColumn();
+    private final IntColumn tokenReadings = new IntColumn();
+    private final IntColumn tokenBases = new IntColumn();
+    private final IntColumn tokenPos = new IntColumn();
+    private final IntColumn tokenCtypes = new IntColumn();
+    private final IntColumn tokenCforms = new IntColumn();
+    private final IntColumn tokenNes = new IntColumn();
+    private final IntColumn tokenValues = new IntColumn();
+
+    private final BaseFormDictionary dictionary;
+
+    public PackedCorpus() {
+        this(new BaseFormDictionary());
+    }
+
+    public PackedCorpus(BaseFormDictionary dictionary) {
+        this.dictionary = dictionary;
+        sentenceChunks.add(0);
+        chunkTokens.add(0);
+    }
+
+    public BaseFormDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Copies a sentence into this corpus.
+     * The sentence itself is not kept.
+     */
+    public void addSentence(Sentence sentence) {
+        int first = getChunkCount();
+        for (Chunk chunk : sentence) {
+            int c = getChunkCount();
+            Token head = chunk.getHead();
+            Token func = chunk.getFunc();
+            int headIndex = -1;
+            int funcIndex = -1;
+            for (Token token : chunk) {
+                int t = getTokenCount();
+                if (token == head) {
+                    headIndex = t;
+                }
+                if (token == func) {
+                    funcIndex = t;
+                }
+                tokenChunks.add(c);
+                tokenIds.add(token.getLocalId());
+                tokenReadings.add(stringId(token.getReading()));
+                tokenBases.add(baseFormId(token.getBase(), token.getBaseForm(), baseForms));
+                tokenPos.add(baseFormId(token.getPos(), token.getPosForm(), posForms));
+                tokenCtypes.add(stringId(token.getCtype()));
+                tokenCforms.add(stringId(token.getCform()));
+                tokenNes.add(stringId(token.getNe()));
+                tokenValues.add(stringId(token.getValue()));
+            }
+            chunkIds.add(chunk.getLocalId());
+            chunkLinks.add(chunk.getLink());
+            chunkRels.add(chunk.getRel().ordinal());
+            chunkHeadIds.add(chunk.getHeadId());
+            chunkFuncIds.add(chunk.getFuncId());
+            chunkHeads.add(headIndex);
+            chunkFuncs.add(funcIndex);
+            if (c == chunkScores.length) {
+                chunkScores = Arrays.copyOf(chunkScores, Math.max(c * 2, IntColumn.INITIAL_CAPACITY));
+            }
+            chunkScores[c] = chunk.getScore();
+            chunkTokens.add(getTokenCount());
+        }
+        // Link each chunk to its parent within this sentence
+        int last = getChunkCount();
+        for (int c = first; c < last; c++) {
+            int parent = -1;
+            int link = chunkLinks.get(c);
+            for (int p = first; p < last && link >= 0; p++) {
+                if (chunkIds.get(p) == link) {
+                    parent = p;
+                    break;
+                }
+            }
+            chunkParents.add(parent);
+        }
+        sentenceChunks.add(last);
+    }
+
+    private int stringId(String value) {
+        if (value == null) {
+            value = "";
+        }
+        if (stringIds == null) {
+            // More sentences are being added after trimToSize()
+            stringIds = new HashMap<String, Integer>(strings.size() * 2);
+            for (int i = 0; i < strings.size(); i++) {
+                stringIds.put(strings.get(i), i);
+            }
+        }
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            baseForms.add(null);
+            posForms.add(null);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+    private int baseFormId(String value, BaseForm baseForm, ArrayList<BaseForm> forms) {
+        int id = stringId(value);
+        if (forms.get(id) == null) {
+            forms.set(id, baseForm);
+        }
+        return id;
+    }
+
+    /**
+     * Releases the extra capacity of each column, and the map used to number
+     * the strings, once the corpus is complete.
+     */
+    public void trimToSize() {
+        for (IntColumn column : new IntColumn[] { sentenceChunks, chunkTokens, chunkIds, chunkLinks, chunkRels,
+                chunkHeadIds, chunkFuncIds, chunkParents, chunkHeads, chunkFuncs, tokenChunks, tokenIds,
+                tokenReadings, tokenBases, tokenPos, tokenCtypes, tokenCforms, tokenNes, tokenValues }) {
+            column.trimToSize();
+        }
+        chunkScores = Arrays.copyOf(chunkScores, getChunkCount());
+        strings.trimToSize();
+        baseForms.trimToSize();
+        posForms.trimToSize();
+        stringIds = null;
+    }
+
+    public int getSentenceCount() {
+        return sentenceChunks.size() - 1;
+    }
+
+    public int getChunkCount() {
+        return chunkIds.size();
+    }
+
+    public int getTokenCount() {
+        return tokenIds.size();
+    }
+
+    public int getChunkStart(int sentence) {
+        return sentenceChunks.get(sentence);
+    }
+
+    public int getChunkEnd(int sentence) {
+        return sentenceChunks.get(sentence + 1);
+    }
+
+    public int getTokenStart(int chunk) {
+        return chunkTokens.get(chunk);
+    }
+
+    public int getTokenEnd(int chunk) {
+        return chunkTokens.get(chunk + 1);
+    }
+
+    public int getParent(int chunk) {
+        return chunkParents.get(chunk);
+    }
+
+    public int getHead(int chunk) {
+        return chunkHeads.get(chunk);
+    }
+
+    public int getFunc(int chunk) {
+        return chunkFuncs.get(chunk);
+    }
+
+    /**
+     * @return the index of the chunk that contains the given token
+     */
+    public int getChunk(int token) {
+        return tokenChunks.get(token);
+    }
+
+    public BaseForm getBaseForm(int token) {
+        return baseForms.get(tokenBases.get(token));
+    }
+
+    public BaseForm getPosForm(int token) {
+        return posForms.get(tokenPos.get(token));
+    }
+
+    /**
+     * Creates a new Sentence object holding a copy of the given sentence.
+     */
+    public Sentence getSentence(int sentence) {
+        Chunk.Rel[] rels = Chunk.Rel.values();
+        Sentence s = new Sentence();
+        for (int c = getChunkStart(sentence); c < getChunkEnd(sentence); c++) {
+            Chunk chunk = new Chunk(chunkIds.get(c), chunkLinks.get(c), rels[chunkRels.get(c)].name(),
+                    chunkScores[c], chunkHeadIds.get(c), chunkFuncIds.get(c));
+            for (int t = getTokenStart(c); t < getTokenEnd(c); t++) {
+                chunk.addToken(new Token(dictionary, tokenIds.get(t),
+                        strings.get(tokenReadings.get(t)),
+                        strings.get(tokenBases.get(t)),
+                        strings.get(tokenPos.get(t)),
+                        strings.get(tokenCtypes.get(t)),
+                        strings.get(tokenCforms.get(t)),
+                        strings.get(tokenNes.get(t)),
+                        strings.get(tokenValues.get(t))));
+            }
+            s.addChunk(chunk);
+        }
+        s.fillTree();
+        return s;
+    }
+
+    public Iterator<Sentence> iterator() {
+        return new Iterator<Sentence>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < getSentenceCount();
+            }
+
+            public Sentence next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getSentence(next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void writeBinary(File file) throws FileNotFoundException, IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            BinaryCorpus.write(this, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void printStats(PrintWriter out) {
+        out.printf("Stats:%n--------------------------------%n    Sentences: %,d%n       Chunks: %,d%n       Tokens: %,d%n   Base Forms: %,d%n      Strings: %,d%n", getSentenceCount(), getChunkCount(), getTokenCount(), dictionary.size(), strings.size());
+        out.flush();
+    }
+
+    /**
+     * Parses a Cabocha XML file straight into a PackedCorpus.
+     * @see XMLCorpusReader
+     */
+    public static PackedCorpus parseXML(File file) {
+        PackedCorpus corpus = null;
+        try {
+            corpus = new XMLCorpusReader(file).readPackedCorpus();
+        } catch (Exception ex) {
+            Logger.getLogger(PackedCorpus.class.getName()).log(Level.SEVERE, String.format("Couldn't Parse XML Corpus: %s", ex.toString()), ex);
+        }
+        return corpus;
+    }
+
+    /**
+     * Parses a Cabocha lattice file straight into a PackedCorpus.
+     * @see LatticeCorpusReader
+     */
+    public static PackedCorpus parseLattice(File file) {
+        PackedCorpus corpus = null;
+        try {
+            corpus = new LatticeCorpusReader(file).readPackedCorpus();
+        } catch (Exception ex) {
+            Logger.getLogger(PackedCorpus.class.getName()).log(Level.SEVERE, String.format("Couldn't Parse Lattice Corpus: %s", ex.toString()), ex);
+        }
+        return corpus;
+    }
+
+    /**
+     * A growable array of ints.
+     */
+    private static class IntColumn {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private int[] values = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(size * 2, INITIAL_CAPACITY));
+            }
+            values[size++] = value;
+        }
+
+        private int get(int index) {
+            return values[index];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void trimToSize() {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+}
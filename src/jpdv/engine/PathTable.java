@@ -0,0 +1,152 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+/**
+ * This class numbers distinct dependency paths without building their strings.
+ *
+ * Each path is stored once as a run of base form indexes in a single int array,
+ * and found through an open-addressing hash table on the path's running hash.
+ * Each path can also have a base form attached, which is created the first time
+ * the path is counted.  This class isn't thread safe.
+ */
+class PathTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Each slot holds a path id plus one, or zero if it is empty
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int mask = slots.length - 1;
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    // The indexes of path i are pool[offsets[i]] up to pool[offsets[i + 1]]
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+    private int[] pool = new int[INITIAL_CAPACITY * 8];
+    private BaseForm[] forms = new BaseForm[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * @return the id of the given path, which is added to the table if it isn't there yet
+     */
+    int getId(DependencyPath path) {
+        int hash = path.hash();
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(id, path)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = add(path, hash);
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * @return the base form attached to the given path, or null if there isn't one yet
+     */
+    BaseForm getForm(int id) {
+        return forms[id];
+    }
+
+    void setForm(int id, BaseForm form) {
+        forms[id] = form;
+    }
+
+    /**
+     * @return the number of distinct paths
+     */
+    int size() {
+        return size;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean matches(int id, DependencyPath path) {
+        int start = offsets[id];
+        int length = offsets[id + 1] - start;
+        if (length != path.size()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (pool[start + i] != path.getIndex(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int add(DependencyPath path, int hash) {
+        int id = size;
+        if (id == hashes.length) {
+            int capacity = hashes.length * 2;
+            int[] newHashes = new int[capacity];
+            System.arraycopy(hashes, 0, newHashes, 0, size);
+            hashes = newHashes;
+            int[] newOffsets = new int[capacity + 1];
+            System.arraycopy(offsets, 0, newOffsets, 0, size + 1);
+            offsets = newOffsets;
+            BaseForm[] newForms = new BaseForm[capacity];
+            System.arraycopy(forms, 0, newForms, 0, size);
+            forms = newForms;
+        }
+        int start = offsets[id];
+        int end = start + path.size();
+        if (end > pool.length) {
+            int[] newPool = new int[Math.max(end, pool.length * 2)];
+            System.arraycopy(pool, 0, newPool, 0, start);
+            pool = newPool;
+        }
+        for (int i = 0; i < path.size(); i++) {
+            pool[start + i] = path.getIndex(i);
+        }
+        hashes[id] = hash;
+        offsets[id + 1] = end;
+        size++;
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+
+package jpdv.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class generates several vector spaces from the same corpus.
+ *
+ * The context spaces that share a corpus are counted in a single pass over it,
+ * and so are the dependency spaces, so adding more spaces to a batch costs
+ * far less than generating each of them on its own.
+ * Each space keeps its own functions (see {@link VectorSpace#setFunction}),
+ * so spaces with different functions can share a pass.
+ * Any other kind of space is generated separately.
+ */
+public class SpaceBatch {
+
+    private final List<VectorSpace> spaces = new ArrayList<VectorSpace>();
+    private final List<Collection<BaseForm>> targets = new ArrayList<Collection<BaseForm>>();
+
+    /**
+     * Adds a space to be generated for the given targets.
+     */
+    public void add(VectorSpace space, Collection<BaseForm> targets) {
+        this.spaces.add(space);
+        this.targets.add(targets);
+    }
+
+    public List<VectorSpace> getSpaces() {
+        return spaces;
+    }
+
+    /**
+     * Generates every space in the batch.
+     * The settings of the first space in each pass, such as the number of threads
+     * and the target index, are used for the whole pass.
+     */
+    public void generateSpaces() {
+        boolean[] done = new boolean[spaces.size()];
+        for (int i = 0; i < spaces.size(); i++) {
+            if (!done[i]) {
+                VectorSpace space = spaces.get(i);
+                if (space instanceof ContextSpace) {
+                    List<ContextSpace> pass = new ArrayList<ContextSpace>();
+                    List<Collection<BaseForm>> passTargets = new ArrayList<Collection<BaseForm>>();
+                    for (int j = i; j < spaces.size(); j++) {
+                        if (!done[j] && spaces.get(j) instanceof ContextSpace && spaces.get(j).corpus == space.corpus) {
+                            pass.add((ContextSpace) spaces.get(j));
+                            passTargets.add(targets.get(j));
+                            done[j] = true;
+                        }
+                    }
+                    ContextSpace.generateSpaces(pass, passTargets);
+                } else if (space instanceof DependencySpace) {
+                    List<DependencySpace> pass = new ArrayList<DependencySpace>();
+                    List<Collection<BaseForm>> passTargets = new ArrayList<Collection<BaseForm>>();
+                    for (int j = i; j < spaces.size(); j++) {
+                        if (!done[j] && spaces.get(j) instanceof DependencySpace && spaces.get(j).corpus == space.corpus) {
+                            pass.add((DependencySpace) spaces.get(j));
+                            passTargets.add(targets.get(j));
+                            done[j] = true;
+                        }
+                    }
+                    DependencySpace.generateSpaces(pass, passTargets);
+                } else {
+                    space.generateSpace(targets.get(i));
+                    done[i] = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class lists the sentences that each base form appears in, so that a vector space
+ * only has to visit the sentences that contain a target.
+ *
+ * Base forms are looked up by value, so an index can be used with any dictionary
+ * and can be saved next to a binary corpus and read back later.
+ * An index only matches a corpus with the same number of sentences and tokens,
+ * and the same fingerprint, which is a hash of where each sentence and chunk starts.
+ *
+ * <pre>
+ * int      magic ("JPDX")
+ * int      version
+ * int      sentence count, token count
+ * long     fingerprint
+ * int      base form count, posting count
+ * For each base form:
+ *   UTF    value
+ *   int    number of sentences
+ * int[]    sentences of each base form in turn, in ascending order
+ * </pre>
+ */
+public class TargetIndex {
+
+    public static final int MAGIC = 0x4A504458;
+    public static final int VERSION = 2;
+
+    private final int sentenceCount;
+    private final int tokenCount;
+    private final long fingerprint;
+    // The position of each base form in offsets
+    private final Map<String, Integer> baseForms;
+    // The sentences of base form i are sentences[offsets[i]] up to sentences[offsets[i + 1]]
+    private final int[] offsets;
+    private final int[] sentences;
+    // The last corpus that matched, so that the fingerprint isn't worked out every time
+    private volatile WeakReference<IndexedCorpus> matched = new WeakReference<IndexedCorpus>(null);
+
+    private TargetIndex(int sentenceCount, int tokenCount, long fingerprint, Map<String, Integer> baseForms, int[] offsets, int[] sentences) {
+        this.sentenceCount = sentenceCount;
+        this.tokenCount = tokenCount;
+        this.fingerprint = fingerprint;
+        this.baseForms = baseForms;
+        this.offsets = offsets;
+        this.sentences = sentences;
+    }
+
+    /**
+     * Builds the index with two passes over the tokens of the corpus.
+     */
+    public static TargetIndex build(IndexedCorpus corpus) {
+        // Count the sentences of each base form, by dictionary index
+        int[] counts = new int[Math.max(16, corpus.getDictionary().size())];
+        int[] lastSentence = new int[counts.length];
+        Arrays.fill(lastSentence, -1);
+        for (int sentence = 0; sentence < corpus.getSentenceCount(); sentence++) {
+            for (int token = getTokenStart(corpus, sentence); token < getTokenEnd(corpus, sentence); token++) {
+                int index = corpus.getBaseForm(token).getIndex();
+                if (index >= counts.length) {
+                    int capacity = Math.max(index + 1, counts.length * 2);
+                    counts = Arrays.copyOf(counts, capacity);
+                    int oldLength = lastSentence.length;
+                    lastSentence = Arrays.copyOf(lastSentence, capacity);
+                    Arrays.fill(lastSentence, oldLength, capacity, -1);
+                }
+                if (lastSentence[index] != sentence) {
+                    lastSentence[index] = sentence;
+                    counts[index]++;
+                }
+            }
+        }
+
+        // Number the base forms that appear and work out where their sentences go
+        Map<String, Integer> baseForms = new HashMap<String, Integer>();
+        int[] positions = new int[counts.length];
+        int baseFormCount = 0;
+        int postingCount = 0;
+        for (int index = 0; index < counts.length; index++) {
+            if (counts[index] > 0) {
+                positions[index] = baseFormCount;
+                baseForms.put(corpus.getDictionary().get(index).getValue(), baseFormCount);
+                baseFormCount++;
+                postingCount += counts[index];
+            }
+        }
+        int[] offsets = new int[baseFormCount + 1];
+        for (int index = 0; index < counts.length; index++) {
+            if (counts[index] > 0) {
+                offsets[positions[index] + 1] = counts[index];
+            }
+        }
+        for (int i = 0; i < baseFormCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+
+        // Fill in the sentences
+        int[] sentences = new int[postingCount];
+        int[] next = Arrays.copyOf(offsets, baseFormCount);
+        Arrays.fill(lastSentence, -1);
+        for (int sentence = 0; sentence < corpus.getSentenceCount(); sentence++) {
+            for (int token = getTokenStart(corpus, sentence); token < getTokenEnd(corpus, sentence); token++) {
+                int index = corpus.getBaseForm(token).getIndex();
+                if (lastSentence[index] != sentence) {
+                    lastSentence[index] = sentence;
+                    sentences[next[positions[index]]++] = sentence;
+                }
+            }
+        }
+        TargetIndex index = new TargetIndex(corpus.getSentenceCount(), corpus.getTokenCount(), getFingerprint(corpus), baseForms, offsets, sentences);
+        index.matched = new WeakReference<IndexedCorpus>(corpus);
+        return index;
+    }
+
+    /**
+     * @return a hash of the first chunk of each sentence and the first token of each chunk
+     */
+    public static long getFingerprint(IndexedCorpus corpus) {
+        // 64 bit FNV-1a over the ints
+        long hash = 0xCBF29CE484222325L;
+        for (int sentence = 0; sentence < corpus.getSentenceCount(); sentence++) {
+            hash = (hash ^ corpus.getChunkStart(sentence)) * 0x100000001B3L;
+        }
+        for (int chunk = 0; chunk < corpus.getChunkCount(); chunk++) {
+            hash = (hash ^ corpus.getTokenStart(chunk)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static int getTokenStart(IndexedCorpus corpus, int sentence) {
+        int chunkStart = corpus.getChunkStart(sentence);
+        return chunkStart < corpus.getChunkEnd(sentence) ? corpus.getTokenStart(chunkStart) : 0;
+    }
+
+    private static int getTokenEnd(IndexedCorpus corpus, int sentence) {
+        int chunkEnd = corpus.getChunkEnd(sentence);
+        return corpus.getChunkStart(sentence) < chunkEnd ? corpus.getTokenEnd(chunkEnd - 1) : 0;
+    }
+
+    /**
+     * @return the number of sentences in the indexed corpus
+     */
+    public int getSentenceCount() {
+        return sentenceCount;
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return true if this index appears to belong to the given corpus
+     */
+    public boolean matches(IndexedCorpus corpus) {
+        boolean ret = matched.get() == corpus;
+        if (!ret) {
+            ret = corpus.getSentenceCount() == sentenceCount
+                    && corpus.getTokenCount() == tokenCount
+                    && getFingerprint(corpus) == fingerprint;
+            if (ret) {
+                matched = new WeakReference<IndexedCorpus>(corpus);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the sentences that contain the given base form, in ascending order
+     */
+    public int[] getSentences(BaseForm baseForm) {
+        int[] ret = new int[0];
+        Integer position = baseForms.get(baseForm.getValue());
+        if (position != null) {
+            ret = Arrays.copyOfRange(sentences, offsets[position], offsets[position + 1]);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the sentences that contain any of the given base forms, in ascending order
+     */
+    public int[] getSentences(Collection<BaseForm> targets) {
+        boolean[] found = new boolean[sentenceCount];
+        int count = 0;
+        for (BaseForm target : targets) {
+            Integer position = baseForms.get(target.getValue());
+            if (position != null) {
+                for (int i = offsets[position]; i < offsets[position + 1]; i++) {
+                    if (!found[sentences[i]]) {
+                        found[sentences[i]] = true;
+                        count++;
+                    }
+                }
+            }
+        }
+        int[] ret = new int[count];
+        int i = 0;
+        for (int sentence = 0; sentence < sentenceCount; sentence++) {
+            if (found[sentence]) {
+                ret[i++] = sentence;
+            }
+        }
+        return ret;
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            String[] values = new String[baseForms.size()];
+            for (Map.Entry<String, Integer> entry : baseForms.entrySet()) {
+                values[entry.getValue()] = entry.getKey();
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sentenceCount);
+            out.writeInt(tokenCount);
+            out.writeLong(fingerprint);
+            out.writeInt(values.length);
+            out.writeInt(sentences.length);
+            for (int i = 0; i < values.length; i++) {
+                out.writeUTF(values[i]);
+                out.writeInt(offsets[i + 1] - offsets[i]);
+            }
+            for (int sentence : sentences) {
+                out.writeInt(sentence);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static TargetIndex read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int magic = in.readInt();
+            if (magic != MAGIC) {
+                throw new IOException(String.format("Not A Target Index File, Magic Number: %08X", magic));
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("Unsupported Target Index Version: %d", version));
+            }
+            int sentenceCount = in.readInt();
+            int tokenCount = in.readInt();
+            long fingerprint = in.readLong();
+            int baseFormCount = in.readInt();
+            int postingCount = in.readInt();
+            Map<String, Integer> baseForms = new HashMap<String, Integer>();
+            int[] offsets = new int[baseFormCount + 1];
+            for (int i = 0; i < baseFormCount; i++) {
+                baseForms.put(in.readUTF(), i);
+                offsets[i + 1] = offsets[i] + in.readInt();
+            }
+            if (offsets[baseFormCount] != postingCount) {
+                throw new IOException(String.format("Corrupt Target Index File: %s", file.getAbsolutePath()));
+            }
+            int[] sentences = new int[postingCount];
+            for (int i = 0; i < postingCount; i++) {
+                sentences[i] = in.readInt();
+            }
+            return new TargetIndex(sentenceCount, tokenCount, fingerprint, baseForms, offsets, sentences);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -30,6 +30,7 @@ wish to do so, delete this exception statement from your version.
 package jpdv.engine;
 
 import java.io.Serializable;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Element;
 
 public class Token extends LexicalItem implements Serializable {
@@ -50,13 +51,17 @@ public class Token extends LexicalItem implements Serializable {
     private boolean func;
 
     public Token(int localId, String reading, String base, String pos, String ctype, String cform, String ne, String value) {
+        this(BaseForm.getDictionary(), localId, reading, base, pos, ctype, cform, ne, value);
+    }
+
+    public Token(BaseFormDictionary dictionary, int localId, String reading, String base, String pos, String ctype, String cform, String ne, String value) {
         super();
         this.localId = localId;
         this.reading = reading;
         this.base = base;
-        this.baseForm = BaseForm.getInstance(base);
+        this.baseForm = dictionary.getInstance(base);
         this.pos = pos;
-        this.posForm = BaseForm.getPOSInstance(pos);
+        this.posForm = dictionary.getPOSInstance(pos);
         this.ctype = ctype;
         this.cform = cform;
         this.ne = ne;
@@ -135,4 +140,24 @@ public class Token extends LexicalItem implements Serializable {
         return new Token(localId, reading, base, pos, ctype, cform, ne, base);
     }
 
+    public static Token fromXML(XMLStreamReader reader, BaseFormDictionary dictionary) {
+        int localId = Integer.parseInt(reader.getAttributeValue(null, "id"));
+        String reading = attribute(reader, "read");
+        String base = attribute(reader, "base");
+        String pos = attribute(reader, "pos");
+        String ctype = attribute(reader, "ctype");
+        String cform = attribute(reader, "cform");
+        String ne = attribute(reader, "ne");
+        return new Token(dictionary, localId, reading, base, pos, ctype, cform, ne, base);
+    }
+
+    private static String attribute(XMLStreamReader reader, String name) {
+        // Match Element.getAttribute(), which returns "" for missing attributes
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            value = "";
+        }
+        return value;
+    }
+
 }
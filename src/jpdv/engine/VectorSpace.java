@@ -33,43 +33,249 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jpdv.functions.Function;
 import jpdv.functions.FunctionExecutor;
+import jpdv.functions.FunctionType;
+import jpdv.functions.PathValueCache;
+import jpdv.vectorspace.SparseMatrix;
+import jpdv.vectorspace.SparseVector;
 
+/**
+ * The counts are held in a sparse matrix numbered by base form index.
+ * Each row is a target, numbered by its index in the corpus dictionary,
+ * and each column is a basis element, numbered by its index in the
+ * dictionary returned by {@link #getBasisDictionary()}.
+ * The counts are only sorted when the space is written.
+ */
 public abstract class VectorSpace {
 
-    protected Corpus corpus;
-    protected Map<BaseForm, Map<BaseForm, Double>> space = new TreeMap<BaseForm, Map<BaseForm, Double>>();
+    protected IndexedCorpus corpus;
+    protected SparseMatrix space = new SparseMatrix();
+    // Holds base forms created by this space, such as dependency paths
+    protected final BaseFormDictionary dictionary = new BaseFormDictionary();
+    // Every cache created for this space, so that their statistics can be added up
+    private final List<PathValueCache> pathValueCaches = new ArrayList<PathValueCache>();
+    private PathValueCache pathValueCache = null;
+    private int pathValueCacheSize = PathValueCache.DEFAULT_CAPACITY;
+    private TargetIndex targetIndex = null;
+    // Functions set for this space only, which take the place of the ones set in FunctionExecutor
+    private final Map<FunctionType, Function> functions = new EnumMap<FunctionType, Function>(FunctionType.class);
 
-    protected VectorSpace(Corpus corpus) {
+    protected VectorSpace(IndexedCorpus corpus) {
         this.corpus = corpus;
     }
 
     public abstract void generateSpace(Collection<BaseForm> targets);
 
+    /**
+     * By default the basis elements are base forms created by this space.
+     * @return the dictionary that numbers the columns of the space
+     */
+    protected BaseFormDictionary getBasisDictionary() {
+        return dictionary;
+    }
+
     public List<BaseForm> getBasisElements() {
         // Generate list of basis elements
-        return FunctionExecutor.executeBasisMappingFunction(space);
+        return FunctionExecutor.executeBasisMappingFunction(getFunction(FunctionType.BASIS_MAPPING), getCounts());
+    }
+
+    /**
+     * Sets a function for this space only, so that spaces with different
+     * functions can be generated together.
+     * @param function the function, or null to use the one set in FunctionExecutor
+     */
+    public void setFunction(FunctionType type, Function function) {
+        synchronized (functions) {
+            if (function == null) {
+                functions.remove(type);
+            } else {
+                functions.put(type, function);
+            }
+        }
+        if (type == FunctionType.PATH_VALUE) {
+            synchronized (pathValueCaches) {
+                for (PathValueCache cache : pathValueCaches) {
+                    cache.setFunction(function);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the function set for this space, or else the one set in FunctionExecutor
+     */
+    public Function getFunction(FunctionType type) {
+        Function ret;
+        synchronized (functions) {
+            ret = functions.get(type);
+        }
+        if (ret == null) {
+            ret = FunctionExecutor.getFunction(type);
+        }
+        return ret;
+    }
+
+    /**
+     * Copies the counts into sorted maps.  This uses a lot more memory than the space itself.
+     * @return a map from each target to the counts of its basis elements
+     */
+    public Map<BaseForm, Map<BaseForm, Double>> getCounts() {
+        BaseFormDictionary rowDictionary = corpus.getDictionary();
+        BaseFormDictionary basisDictionary = getBasisDictionary();
+        Map<BaseForm, Map<BaseForm, Double>> counts = new TreeMap<BaseForm, Map<BaseForm, Double>>();
+        for (int row : space.getRows()) {
+            SparseVector vector = space.getRow(row);
+            Map<BaseForm, Double> map = new TreeMap<BaseForm, Double>();
+            for (int column : vector.getKeys()) {
+                map.put(basisDictionary.get(column), vector.get(column));
+            }
+            counts.put(rowDictionary.get(row), map);
+        }
+        return counts;
+    }
+
+    public TargetIndex getTargetIndex() {
+        return targetIndex;
+    }
+
+    /**
+     * When an index is set, only the sentences that contain a target are visited.
+     */
+    public void setTargetIndex(TargetIndex targetIndex) {
+        this.targetIndex = targetIndex;
+    }
+
+    /**
+     * @return the sentences that contain any of the targets, in ascending order,
+     * or null if every sentence has to be visited
+     */
+    protected int[] getTargetSentences(Collection<BaseForm> targets) {
+        int[] sentences = null;
+        if (targetIndex != null) {
+            if (targetIndex.matches(corpus)) {
+                sentences = targetIndex.getSentences(targets);
+            } else {
+                Logger.getLogger(VectorSpace.class.getName()).log(Level.WARNING, String.format("Target index doesn't match the corpus, Sentences: %,d, Tokens: %,d, Expected: %,d, %,d", targetIndex.getSentenceCount(), targetIndex.getTokenCount(), corpus.getSentenceCount(), corpus.getTokenCount()));
+            }
+        }
+        return sentences;
+    }
+
+    public int getPathValueCacheSize() {
+        return pathValueCacheSize;
+    }
+
+    /**
+     * Sets the number of path values that each counting thread remembers.
+     */
+    public void setPathValueCacheSize(int pathValueCacheSize) {
+        this.pathValueCacheSize = pathValueCacheSize;
+    }
+
+    /**
+     * Creates a path value cache for a single thread.
+     */
+    protected PathValueCache createPathValueCache() {
+        PathValueCache cache = new PathValueCache(pathValueCacheSize);
+        synchronized (functions) {
+            cache.setFunction(functions.get(FunctionType.PATH_VALUE));
+        }
+        synchronized (pathValueCaches) {
+            pathValueCaches.add(cache);
+        }
+        return cache;
+    }
+
+    /**
+     * @return the number of path values that came from a cache
+     */
+    public long getPathValueHits() {
+        long hits = 0;
+        synchronized (pathValueCaches) {
+            for (PathValueCache cache : pathValueCaches) {
+                hits += cache.getHits();
+            }
+        }
+        return hits;
     }
 
+    /**
+     * @return the number of times the path value function was run
+     */
+    public long getPathValueMisses() {
+        long misses = 0;
+        synchronized (pathValueCaches) {
+            for (PathValueCache cache : pathValueCaches) {
+                misses += cache.getMisses();
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * This should only be called by one thread at a time.
+     */
     protected void incrementCount(BaseForm key, Collection<BaseForm> basisElements) {
-        Map<BaseForm, Double> map = space.get(key);
-        if (map == null) {
-            map = new TreeMap<BaseForm, Double>();
-            space.put(key, map);
+        if (pathValueCache == null) {
+            pathValueCache = createPathValueCache();
         }
+        incrementCount(space, pathValueCache, key, basisElements);
+    }
+
+    /**
+     * Adds counts to the given table instead of to this space,
+     * so that each thread can count into a table of its own.
+     * The key must come from the corpus dictionary, and the basis
+     * elements from the basis dictionary.
+     */
+    protected static void incrementCount(SparseMatrix table, PathValueCache cache, BaseForm key, Collection<BaseForm> basisElements) {
+        SparseVector row = table.getOrCreateRow(key.getIndex());
         for(BaseForm basisElement: basisElements) {
-            Double d = map.get(basisElement);
-            if (d == null) {
-                d = 0.0;
-            }
-            Double pathValue = FunctionExecutor.executePathValueFunction(basisElement.getValue());
-            d += pathValue;
-            map.put(basisElement, d);
+            row.add(basisElement.getIndex(), cache.getValue(basisElement));
+        }
+    }
+
+    /**
+     * Adds every count in the given table to this space.
+     */
+    protected void mergeCounts(SparseMatrix table) {
+        space.addAll(table);
+    }
+
+    /**
+     * Frees the counts, the path value caches and every base form created by this space.
+     * The space is empty afterwards, so this should be called once it has been written.
+     */
+    public void release() {
+        space.clear();
+        dictionary.clear();
+        synchronized (pathValueCaches) {
+            pathValueCaches.clear();
         }
+        pathValueCache = null;
+    }
+
+    /**
+     * The basis mapping function may return base forms from any dictionary,
+     * so they are matched to columns by value when they aren't from the basis dictionary.
+     * @return the column of the given basis element, or -1 if it was never counted
+     */
+    private int getColumn(BaseFormDictionary basisDictionary, BaseForm basisElement) {
+        if (basisDictionary.get(basisElement.getIndex()) == basisElement) {
+            return basisElement.getIndex();
+        }
+        BaseForm match = basisDictionary.lookup(basisElement.getValue());
+        return match == null ? -1 : match.getIndex();
     }
 
     public void writeSpace(File file) throws FileNotFoundException, UnsupportedEncodingException {
@@ -82,22 +288,30 @@ public abstract class VectorSpace {
 
     public void writeSpace(PrintWriter out) {
         List<BaseForm> basisElements = getBasisElements();
+        BaseFormDictionary basisDictionary = getBasisDictionary();
+        int[] columns = new int[basisElements.size()];
         out.printf("WORD");
-        for (BaseForm basisElement : basisElements) {
+        for (int i = 0; i < columns.length; i++) {
+            BaseForm basisElement = basisElements.get(i);
+            columns[i] = getColumn(basisDictionary, basisElement);
             out.printf("\t%s", basisElement);
         }
         out.println();
         out.flush();
-        for (Map.Entry<BaseForm, Map<BaseForm, Double>> entry : space.entrySet()) {
-            BaseForm current = entry.getKey();
-            Map<BaseForm, Double> map = entry.getValue();
+
+        // Sort the targets
+        BaseFormDictionary rowDictionary = corpus.getDictionary();
+        List<BaseForm> keys = new ArrayList<BaseForm>(space.getRowCount());
+        for (int row : space.getRows()) {
+            keys.add(rowDictionary.get(row));
+        }
+        Collections.sort(keys);
+
+        for (BaseForm current : keys) {
+            SparseVector vector = space.getRow(current.getIndex());
             out.printf("%s", current);
-            for (BaseForm basisElement : basisElements) {
-                Double count = map.get(basisElement);
-                if (count == null) {
-                    count = 0.0;
-                }
-                out.printf("\t%f", count);
+            for (int column : columns) {
+                out.printf("\t%f", vector.get(column));
             }
             out.println();
             out.flush();
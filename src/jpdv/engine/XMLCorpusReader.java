@@ -0,0 +1,149 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.engine;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * This class reads Cabocha XML output (cabocha -f 3) using StAX.
+ * Unlike Corpus.fromXML(), it never builds a DOM of the whole document,
+ * so the memory needed to parse depends only on the size of a single sentence.
+ */
+public class XMLCorpusReader extends CorpusReader {
+
+    private final InputStream in;
+    private final XMLStreamReader reader;
+
+    public XMLCorpusReader(File file) throws FileNotFoundException, IOException {
+        this(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    public XMLCorpusReader(InputStream in) throws IOException {
+        this.in = in;
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            reader = factory.createXMLStreamReader(in);
+        } catch (XMLStreamException ex) {
+            throw new IOException(String.format("Couldn't Create XML Reader: %s", ex.toString()), ex);
+        }
+    }
+
+    @Override
+    public Sentence readSentence() throws IOException {
+        Sentence sentence = null;
+        Chunk chunk = null;
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("sentence".equals(name)) {
+                        sentence = new Sentence();
+                    } else if ("chunk".equals(name) && sentence != null) {
+                        chunk = Chunk.fromXML(reader);
+                    } else if ("tok".equals(name) && chunk != null) {
+                        chunk.addToken(Token.fromXML(reader, getDictionary()));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("chunk".equals(name) && chunk != null) {
+                        sentence.addChunk(chunk);
+                        chunk = null;
+                    } else if ("sentence".equals(name) && sentence != null) {
+                        sentence.fillTree();
+                        return sentence;
+                    }
+                }
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException(String.format("Couldn't Parse XML Corpus: %s", ex.toString()), ex);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            Logger.getLogger(XMLCorpusReader.class.getName()).log(Level.WARNING, String.format("Couldn't Close XML Reader: %s", ex.toString()), ex);
+        }
+        in.close();
+    }
+
+    /**
+     * Parses the given file with both the DOM and the StAX parser and
+     * logs the time each one takes.
+     */
+    public static void main(String[] args) throws Exception {
+        Logger logger = Logger.getLogger(XMLCorpusReader.class.getName());
+        if (args.length < 1) {
+            logger.log(Level.SEVERE, "Please supply a filename to load,");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        if (!file.exists()) {
+            logger.log(Level.SEVERE, String.format("File doesn't exist: %s", file.getAbsolutePath()));
+            System.exit(1);
+        }
+        double megabytes = file.length() / (1024.0 * 1024.0);
+        Runtime runtime = Runtime.getRuntime();
+
+        runtime.gc();
+        double startTime = new Date().getTime();
+        Corpus domCorpus = Corpus.parseXMLDocument(file);
+        double endTime = new Date().getTime();
+        double seconds = (endTime - startTime) / 1000.0;
+        logger.log(Level.INFO, String.format("DOM: %,d Sentences, %,.3f seconds, %,.3f MB/s", domCorpus.getSetences().size(), seconds, megabytes / seconds));
+        domCorpus = null;
+
+        runtime.gc();
+        startTime = new Date().getTime();
+        Corpus staxCorpus = new XMLCorpusReader(file).readCorpus();
+        endTime = new Date().getTime();
+        seconds = (endTime - startTime) / 1000.0;
+        logger.log(Level.INFO, String.format("StAX: %,d Sentences, %,.3f seconds, %,.3f MB/s", staxCorpus.getSetences().size(), seconds, megabytes / seconds));
+    }
+
+}
@@ -37,7 +37,8 @@ import java.net.URL;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.script.Bindings;
-import javax.script.ScriptContext;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
@@ -47,6 +48,12 @@ import jpdv.util.StreamUtils;
  * This class encapsulates a function script.
  * One of these is created for each function during startup and is then reused
  * so that the script doesn't need to be recompiled, etc.
+ * When the script engine supports it, the script is compiled once in
+ * the constructor and each call just runs the compiled script.
+ *
+ * Each thread binds its values into bindings of its own, so a function can
+ * be run by several threads at once.  Engines that don't declare themselves
+ * thread safe are also created once per thread.
  * @author Andrew Young <andrew at vaelen.org>
  */
 public class Function {
@@ -56,8 +63,26 @@ public class Function {
     private String language;
     private String extension;
     private final String script;
+    // The engine for the thread that created this function
     private ScriptEngine scriptEngine;
-    private Bindings bindings;
+    private CompiledScript compiledScript;
+    private boolean threadSafe = false;
+    private boolean pure = false;
+    private final ThreadLocal<ScriptState> states = new ThreadLocal<ScriptState>() {
+        @Override
+        protected ScriptState initialValue() {
+            return createState();
+        }
+    };
+
+    /**
+     * Creates a function without a script, for functions implemented in Java.
+     * Such functions implement {@link ContextSelector}, {@link PathValuer}
+     * or {@link BasisMapper}, and are called without the script engine.
+     */
+    protected Function() {
+        this.script = null;
+    }
 
     public Function(String language, String script) {
         this.language = language;
@@ -143,26 +168,120 @@ public class Function {
             scriptEngine = factory.getEngineByName(DEFAULT_LANGUAGE);
         }
         if(scriptEngine != null) {
-            bindings = scriptEngine.getContext().getBindings(ScriptContext.ENGINE_SCOPE);
+            // A null value means that the engine can't be shared between threads
+            threadSafe = scriptEngine.getFactory().getParameter("THREADING") != null;
+            compiledScript = compile(scriptEngine);
+            states.set(new ScriptState(scriptEngine, compiledScript));
+        }
+    }
+
+    /**
+     * Sets up a thread other than the one that created this function.
+     */
+    private ScriptState createState() {
+        ScriptState state = null;
+        if(scriptEngine != null) {
+            if(threadSafe) {
+                state = new ScriptState(scriptEngine, compiledScript);
+            } else {
+                ScriptEngine engine = scriptEngine.getFactory().getScriptEngine();
+                state = new ScriptState(engine, compile(engine));
+            }
         }
+        return state;
+    }
+
+    /**
+     * Compiles the script if the engine is able to.
+     * Otherwise the script is evaluated from source on every call.
+     * @return the compiled script, or null if it couldn't be compiled
+     */
+    private CompiledScript compile(ScriptEngine engine) {
+        CompiledScript ret = null;
+        if(engine instanceof Compilable && script != null) {
+            try {
+                ret = ((Compilable) engine).compile(script);
+            } catch (ScriptException ex) {
+                Logger.getLogger(Function.class.getName()).log(Level.SEVERE, String.format("Couldn't Compile Function: %s", ex.toString()), ex);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return true if the script has been compiled
+     */
+    public boolean isCompiled() {
+        return compiledScript != null;
+    }
+
+    /**
+     * A function is pure if its result depends only on its arguments,
+     * so that results may be cached.  Scripts aren't pure unless they are marked as such.
+     */
+    public boolean isPure() {
+        return pure;
+    }
+
+    public void setPure(boolean pure) {
+        this.pure = pure;
+    }
+
+    /**
+     * @return true if threads share one script engine
+     */
+    public boolean isThreadSafe() {
+        return threadSafe;
     }
 
+    /**
+     * Binds a value for the calling thread only.
+     */
     protected void bind(String name, Object value) {
-        if(bindings != null) {
-            bindings.put(name, value);
+        ScriptState state = states.get();
+        if(state != null) {
+            state.bindings.put(name, value);
         } else {
             Logger.getLogger(Function.class.getName()).log(Level.WARNING, String.format("Couldn't Bind Value For Key: %s", name));
         }
     }
 
+    /**
+     * Runs the script with the values bound by the calling thread.
+     */
     protected Object eval() {
         Object ret = null;
-        try {
-            ret = scriptEngine.eval(script);
-        } catch (ScriptException ex) {
-            Logger.getLogger(Function.class.getName()).log(Level.SEVERE, "Couldn't Execute Function", ex);
+        ScriptState state = states.get();
+        if(state == null) {
+            Logger.getLogger(Function.class.getName()).log(Level.WARNING, "Couldn't Execute Function: No Script Engine");
+        } else {
+            try {
+                if(state.compiledScript != null) {
+                    ret = state.compiledScript.eval(state.bindings);
+                } else {
+                    ret = state.engine.eval(script, state.bindings);
+                }
+            } catch (ScriptException ex) {
+                Logger.getLogger(Function.class.getName()).log(Level.SEVERE, "Couldn't Execute Function", ex);
+            }
         }
         return ret;
     }
 
+    /**
+     * The engine, compiled script and bindings used by one thread.
+     */
+    private static class ScriptState {
+
+        private final ScriptEngine engine;
+        private final CompiledScript compiledScript;
+        private final Bindings bindings;
+
+        private ScriptState(ScriptEngine engine, CompiledScript compiledScript) {
+            this.engine = engine;
+            this.compiledScript = compiledScript;
+            this.bindings = engine.createBindings();
+        }
+    }
+
 }
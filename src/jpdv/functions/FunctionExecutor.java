@@ -46,6 +46,9 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import jpdv.engine.BaseForm;
+import jpdv.functions.impl.AllPathsSelector;
+import jpdv.functions.impl.ConstantPathValuer;
+import jpdv.functions.impl.PMIBasisMapper;
 
 /**
  * This class executes various functions implemented as scripts.
@@ -56,10 +59,19 @@ import jpdv.engine.BaseForm;
  *   The basis mapping function
  *
  * So that the end user can choose which scripting language they want to use,
- * this class uses the Java Scripting API to execute the scripts.  The default
- * implementations are written in Groovy.  JavaScript is also supported by
- * default by the Java Scripting API.  All other languages will require the
- * end user to add custom jars to the classpath before running jpdv.
+ * this class uses the Java Scripting API to execute the scripts.  Groovy
+ * versions of the defaults are available from {@link #getScriptImpl(FunctionType)}.
+ * JavaScript is also supported by default by the Java Scripting API.  All other
+ * languages will require the end user to add custom jars to the classpath
+ * before running jpdv.
+ *
+ * The default implementations are written in Java.  A function that implements
+ * {@link ContextSelector}, {@link PathValuer} or {@link BasisMapper} is called
+ * directly, without going through the script engine.
+ *
+ * These methods aren't synchronized.  Each thread binds its arguments
+ * separately (see {@link Function}), so functions may be run by several
+ * threads at once.
  * 
  * @author Andrew Young <andrew at vaelen.org>
  */
@@ -72,7 +84,33 @@ public class FunctionExecutor {
         }
     }
 
+    /**
+     * The defaults are implemented in Java, except for the test function.
+     */
     public static Function getDefaultImpl(FunctionType type) {
+        Function function = null;
+        switch(type) {
+            case BASIS_MAPPING:
+                function = new PMIBasisMapper();
+                break;
+            case CONTEXT_SELECTION:
+                function = new AllPathsSelector();
+                break;
+            case PATH_VALUE:
+                function = new ConstantPathValuer();
+                break;
+            case TEST:
+            default:
+                function = getScriptImpl(type);
+                break;
+        }
+        return function;
+    }
+
+    /**
+     * @return the script under jpdv/functions/impl that implements the given type of function
+     */
+    public static Function getScriptImpl(FunctionType type) {
         Function function = null;
         switch(type) {
             case BASIS_MAPPING:
@@ -112,38 +150,68 @@ public class FunctionExecutor {
         return FUNCTION_MAP.get(type);
     }
 
-    public static synchronized void executeTestFunction(String foo) {
+    public static void executeTestFunction(String foo) {
         Function function = FUNCTION_MAP.get(FunctionType.TEST);
         function.bind("foo", foo);
         function.bind("date", new Date());
         function.eval();
     }
 
-    public static synchronized boolean executeContextSelectionFunction(Collection<BaseForm> path) {
+    public static boolean executeContextSelectionFunction(Collection<BaseForm> path) {
+        return executeContextSelectionFunction(FUNCTION_MAP.get(FunctionType.CONTEXT_SELECTION), path);
+    }
+
+    /**
+     * Runs the given context selection function instead of the one set here.
+     */
+    public static boolean executeContextSelectionFunction(Function function, Collection<BaseForm> path) {
         boolean ret = true;
-        Function function = FUNCTION_MAP.get(FunctionType.CONTEXT_SELECTION);
-        function.bind("path", path);
-        Object obj = function.eval();
-        if(obj instanceof Boolean) {
-            ret = ((Boolean)obj).booleanValue();
+        if(function instanceof ContextSelector) {
+            ret = ((ContextSelector) function).isSelected(path);
+        } else {
+            function.bind("path", path);
+            Object obj = function.eval();
+            if(obj instanceof Boolean) {
+                ret = ((Boolean)obj).booleanValue();
+            }
         }
         return ret;
     }
 
-    public static synchronized double executePathValueFunction(String path) {
+    public static double executePathValueFunction(String path) {
+        return executePathValueFunction(FUNCTION_MAP.get(FunctionType.PATH_VALUE), path);
+    }
+
+    /**
+     * Runs the given path value function instead of the one set here.
+     */
+    public static double executePathValueFunction(Function function, String path) {
         double ret = 1.0;
-        Function function = FUNCTION_MAP.get(FunctionType.PATH_VALUE);
-        function.bind("path", path);
-        Object obj = function.eval();
-        if(obj instanceof Number) {
-            ret = ((Number)obj).doubleValue();
+        if(function instanceof PathValuer) {
+            ret = ((PathValuer) function).getValue(path);
+        } else {
+            function.bind("path", path);
+            Object obj = function.eval();
+            if(obj instanceof Number) {
+                ret = ((Number)obj).doubleValue();
+            }
         }
         return ret;
     }
 
-    public static synchronized List<BaseForm> executeBasisMappingFunction(Map<BaseForm, Map<BaseForm, Double>> space) {
+    public static List<BaseForm> executeBasisMappingFunction(Map<BaseForm, Map<BaseForm, Double>> space) {
+        return executeBasisMappingFunction(FUNCTION_MAP.get(FunctionType.BASIS_MAPPING), space);
+    }
+
+    /**
+     * Runs the given basis mapping function instead of the one set here.
+     */
+    public static List<BaseForm> executeBasisMappingFunction(Function function, Map<BaseForm, Map<BaseForm, Double>> space) {
+        if(function instanceof BasisMapper) {
+            return ((BasisMapper) function).getBasisElements(space);
+        }
+        // Scripts may return anything iterable, including strings
         List<BaseForm> list = new ArrayList<BaseForm>();
-        Function function = FUNCTION_MAP.get(FunctionType.BASIS_MAPPING);
         function.bind("space", space);
         Object obj = function.eval();
         if(obj instanceof Iterable) {
@@ -0,0 +1,131 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.functions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jpdv.engine.BaseForm;
+
+/**
+ * This class remembers the results of the path value function.
+ *
+ * Results are only cached when the function is pure (see {@link Function#isPure()}).
+ * Once the cache is full the least recently used path is dropped.
+ * This class isn't thread safe, so each thread should have a cache of its own.
+ */
+public class PathValueCache {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final Map<BaseForm, Double> values;
+    // The function to run, or null to run the one set in FunctionExecutor
+    private volatile Function source = null;
+    // The function that the cached values came from
+    private Function function = null;
+    private long hits = 0;
+    private long misses = 0;
+
+    public PathValueCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the largest number of paths to remember
+     */
+    public PathValueCache(final int capacity) {
+        this.values = new LinkedHashMap<BaseForm, Double>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BaseForm, Double> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Makes this cache run the given function instead of the one set in FunctionExecutor.
+     * @param source the path value function, or null to use the one set in FunctionExecutor
+     */
+    public void setFunction(Function source) {
+        this.source = source;
+    }
+
+    /**
+     * @return the value of the path, from the cache if possible
+     */
+    public double getValue(BaseForm path) {
+        Function current = source;
+        if (current == null) {
+            current = FunctionExecutor.getFunction(FunctionType.PATH_VALUE);
+        }
+        if (current != function) {
+            // The function has been replaced, so the cached values are stale
+            values.clear();
+            function = current;
+        }
+        double ret;
+        if (current == null || !current.isPure()) {
+            misses++;
+            ret = FunctionExecutor.executePathValueFunction(current, path.getValue());
+        } else {
+            Double value = values.get(path);
+            if (value == null) {
+                misses++;
+                ret = FunctionExecutor.executePathValueFunction(current, path.getValue());
+                values.put(path, ret);
+            } else {
+                hits++;
+                ret = value;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of values that came from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of values that the function had to be run for
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public void clear() {
+        values.clear();
+    }
+}
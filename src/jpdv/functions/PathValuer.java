@@ -27,8 +27,19 @@ to your version of the library, but you are not obligated to do so. If you do no
 wish to do so, delete this exception statement from your version. 
 */
 
-package jpdv.engine;
+package jpdv.functions;
+
+/**
+ * A path value function implemented in Java.
+ * When the function for {@link FunctionType#PATH_VALUE} implements this,
+ * it is called directly instead of through the script engine.
+ */
+public interface PathValuer {
+
+    /**
+     * @param path the value of a basis element
+     * @return the amount to add to the count each time the basis element is seen
+     */
+    public double getValue(String path);
 
-public interface LexicalItemListener {
-    public void lexicalItemCreated(LexicalItem lexicalItem);
 }
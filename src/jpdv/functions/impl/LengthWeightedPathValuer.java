@@ -0,0 +1,56 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.functions.impl;
+
+import jpdv.engine.DependencySpace;
+import jpdv.functions.Function;
+import jpdv.functions.PathValuer;
+
+/**
+ * This path value function divides one by the number of base forms in the path,
+ * so that distant basis elements count for less than close ones.
+ */
+public class LengthWeightedPathValuer extends Function implements PathValuer {
+
+    public LengthWeightedPathValuer() {
+        setPure(true);
+    }
+
+    public double getValue(String path) {
+        int length = 1;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == DependencySpace.PATH_SEPARATOR) {
+                length++;
+            }
+        }
+        return 1.0 / length;
+    }
+
+}
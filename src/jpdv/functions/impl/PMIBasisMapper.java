@@ -0,0 +1,122 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.functions.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jpdv.engine.BaseForm;
+import jpdv.functions.BasisMapper;
+import jpdv.functions.Function;
+
+/**
+ * The default basis mapping function, which is the same as BasisMappingFunction.groovy.
+ *
+ * Every basis element that was seen is used, unless there are more than the threshold.
+ * In that case the basis elements with the lowest average pointwise mutual information
+ * are dropped.  Like the script, this only looks at whether a target and a basis element
+ * were seen together, not at how often.  The basis elements are returned in sorted order.
+ */
+public class PMIBasisMapper extends Function implements BasisMapper {
+
+    public static final int DEFAULT_THRESHOLD = 2000;
+
+    private final int threshold;
+
+    public PMIBasisMapper() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold the largest number of basis elements to return, or zero for no limit
+     */
+    public PMIBasisMapper(int threshold) {
+        this.threshold = threshold;
+        setPure(true);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public List<BaseForm> getBasisElements(Map<BaseForm, Map<BaseForm, Double>> space) {
+        Logger logger = Logger.getLogger(PMIBasisMapper.class.getName());
+
+        // The number of targets that each basis element was seen with
+        Map<BaseForm, Integer> basisCounts = new HashMap<BaseForm, Integer>();
+        int totalTargets = space.size();
+        int totalCombined = 0;
+        for (Map<BaseForm, Double> row : space.values()) {
+            for (BaseForm basis : row.keySet()) {
+                Integer count = basisCounts.get(basis);
+                basisCounts.put(basis, count == null ? 1 : count + 1);
+                totalCombined++;
+            }
+        }
+        TreeSet<BaseForm> basisElementSet = new TreeSet<BaseForm>(basisCounts.keySet());
+        logger.log(Level.INFO, String.format("# of Basis Mappings: %,d", basisElementSet.size()));
+
+        if (threshold > 0 && basisElementSet.size() > threshold) {
+            // Calculate Pointwise Mutual Information (PMI) values.
+            final Map<BaseForm, Double> averagePMI = new HashMap<BaseForm, Double>();
+            double pTarget = 1.0 / totalTargets;
+            double pCombined = 1.0 / totalCombined;
+            for (Map.Entry<BaseForm, Integer> entry : basisCounts.entrySet()) {
+                // Each target the basis element was seen with has the same PMI
+                int count = entry.getValue();
+                double pBasis = (double) count / totalCombined;
+                double pmi = Math.max(0.0, Math.log(pCombined / (pTarget * pBasis)));
+                averagePMI.put(entry.getKey(), pmi * count / totalTargets);
+            }
+
+            // Remove the basis elements with the lowest PMI.
+            // Ties keep their sorted order, since the sort is stable.
+            List<BaseForm> ranked = new ArrayList<BaseForm>(basisElementSet);
+            Collections.sort(ranked, new Comparator<BaseForm>() {
+                public int compare(BaseForm a, BaseForm b) {
+                    return averagePMI.get(a).compareTo(averagePMI.get(b));
+                }
+            });
+            for (BaseForm basis : ranked.subList(0, ranked.size() - threshold)) {
+                basisElementSet.remove(basis);
+            }
+            logger.log(Level.INFO, String.format("# of Final Basis Mappings: %,d", basisElementSet.size()));
+        }
+
+        return new ArrayList<BaseForm>(basisElementSet);
+    }
+
+}
@@ -29,23 +29,48 @@ wish to do so, delete this exception statement from your version.
 
 package jpdv.ui;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jpdv.engine.BaseForm;
 import jpdv.engine.ContextSpace;
-import jpdv.engine.Corpus;
 import jpdv.engine.DependencySpace;
+import jpdv.engine.IndexedCorpus;
+import jpdv.engine.MappedCorpus;
+import jpdv.engine.PackedCorpus;
+import jpdv.engine.SpaceBatch;
+import jpdv.engine.TargetIndex;
+import jpdv.engine.VectorSpace;
+import jpdv.functions.Function;
+import jpdv.functions.FunctionType;
 
 public class Main {
+
+    // The functions that a job file can replace
+    private static final Set<FunctionType> SPACE_FUNCTIONS = EnumSet.of(FunctionType.CONTEXT_SELECTION, FunctionType.PATH_VALUE, FunctionType.BASIS_MAPPING);
+
     public static final void main(String[] args) {
         Logger logger = Logger.getLogger(Main.class.getName());
 
-        int contextSize = 5;
+        // Several sizes can be given, separated by commas, and are counted in one pass
+        int[] contextSizes = { 5 };
+        // The limits on dependency paths, where 0 and null mean no limit
+        int maxPathLength = 0;
+        List<String> allowedPOS = null;
 
         if(args.length < 1) {
             logger.log(Level.SEVERE, "Please supply a filename to load,");
@@ -63,7 +88,15 @@ public class Main {
         }
 
         List<BaseForm> targets = BaseForm.getInstances("欠く", "世紀", "社会", "コンピュータ", "ため");
-        if(args.length > 1) {
+        // A job file lists several spaces to generate in one pass, instead of a targets file
+        File jobsFile = null;
+        if(args.length > 1 && args[1].endsWith(".jobs")) {
+            jobsFile = new File(args[1]);
+            if (!jobsFile.canRead()) {
+                logger.log(Level.SEVERE, String.format("Job file isn't readable: %s", jobsFile.getAbsolutePath()));
+                System.exit(1);
+            }
+        } else if(args.length > 1) {
             File targetsFile = new File(args[1]);
             if (!targetsFile.exists()) {
                 logger.log(Level.WARNING, String.format("Targets file doesn't exist, using defaults: %s", targetsFile.getAbsolutePath()));
@@ -81,35 +114,54 @@ public class Main {
 
         if(args.length > 2) {
             try {
-                contextSize = Integer.parseInt(args[2]);
+                contextSizes = parseSizes(args[2]);
             } catch (Exception ex) {
-                logger.log(Level.WARNING, String.format("Couldn't parse context size: %s, Using default value: %,d", args[1], contextSize));
+                logger.log(Level.WARNING, String.format("Couldn't parse context size: %s, Using default value: %s", args[2], Arrays.toString(contextSizes)));
             }
         }
 
-        Corpus corpus = null;
-        String path = file.getAbsolutePath();
-
-        if(path.endsWith(".xml")) {
+        if(args.length > 3) {
             try {
-                logger.log(Level.INFO, String.format("Parsing Cabocha XML File: %s", file.getAbsolutePath()));
-                double startTime = new Date().getTime();
-                corpus = Corpus.parseXML(new File(args[0]));
-                double endTime = new Date().getTime();
-                logger.log(Level.INFO, String.format("Total Parse Time: %,.3f seconds", (endTime - startTime) / 1000.0));
-                path = path.substring(0, path.length() - 4);
-                //File binaryFile = new File(String.format("%s.corpus", path));
-                //logger.log(Level.INFO, String.format("Writing Binary File: %s", binaryFile.getAbsolutePath()));
-                //corpus.writeBinary(binaryFile);
+                maxPathLength = Integer.parseInt(args[3]);
             } catch (Exception ex) {
-                Logger.getLogger(Main.class.getName()).log(Level.WARNING, String.format("Couldn't Write Binary File: %s", ex.toString()), ex);
+                logger.log(Level.WARNING, String.format("Couldn't parse max path length: %s, Using default value: %d", args[3], maxPathLength));
             }
+        }
+
+        if(args.length > 4) {
+            allowedPOS = parseList(args[4]);
+        }
+
+        IndexedCorpus corpus = null;
+        String path = file.getAbsolutePath();
+        // An existing index is only trusted for a binary corpus, since a parsed file may have changed
+        boolean reuseIndex = false;
+
+        if(path.endsWith(".xml")) {
+            logger.log(Level.INFO, String.format("Parsing Cabocha XML File: %s", file.getAbsolutePath()));
+            double startTime = new Date().getTime();
+            PackedCorpus parsed = PackedCorpus.parseXML(file);
+            double endTime = new Date().getTime();
+            logger.log(Level.INFO, String.format("Total Parse Time: %,.3f seconds", (endTime - startTime) / 1000.0));
+            path = path.substring(0, path.length() - 4);
+            writeBinary(parsed, path);
+            corpus = parsed;
+        } else if(path.endsWith(".lattice")) {
+            logger.log(Level.INFO, String.format("Parsing Cabocha Lattice File: %s", file.getAbsolutePath()));
+            double startTime = new Date().getTime();
+            PackedCorpus parsed = PackedCorpus.parseLattice(file);
+            double endTime = new Date().getTime();
+            logger.log(Level.INFO, String.format("Total Parse Time: %,.3f seconds", (endTime - startTime) / 1000.0));
+            path = path.substring(0, path.length() - 8);
+            writeBinary(parsed, path);
+            corpus = parsed;
         } else if(path.endsWith(".corpus")) {
-            logger.log(Level.INFO, String.format("Loading Binary File: %s", file.getAbsolutePath()));
+            logger.log(Level.INFO, String.format("Mapping Binary File: %s", file.getAbsolutePath()));
             path = path.substring(0, path.length() - 7);
+            reuseIndex = true;
             try {
                 double startTime = new Date().getTime();
-                corpus = Corpus.fromBinary(file);
+                corpus = new MappedCorpus(file);
                 double endTime = new Date().getTime();
                 logger.log(Level.INFO, String.format("Total Load Time: %,.3f seconds", (endTime - startTime) / 1000.0));
             } catch (Exception ex) {
@@ -120,18 +172,42 @@ public class Main {
             logger.log(Level.SEVERE, String.format("File Type Unknown: %s", file.getAbsolutePath()));
         }
         corpus.printStats(new PrintWriter(System.out));
+        TargetIndex targetIndex = getTargetIndex(corpus, path, reuseIndex);
+
+        if(jobsFile != null) {
+            List<Job> jobs = null;
+            try {
+                jobs = readJobs(jobsFile);
+            } catch (Exception ex) {
+                logger.log(Level.SEVERE, String.format("Couldn't read job file: %s", ex.toString()), ex);
+                System.exit(1);
+            }
+            runJobs(jobs, corpus, targetIndex, path);
+            return;
+        }
 
         // Context Space
         {
-            logger.log(Level.INFO, String.format("Generating Context Space, Context Size: %,d", contextSize));
-            ContextSpace contextSpace = new ContextSpace(corpus, contextSize);
-            contextSpace.generateSpace(targets);
-            File contextSpaceFile = new File(String.format("%s.context-%d", path, contextSize));
-            logger.log(Level.INFO, String.format("Writing Context Space: %s", contextSpaceFile.getAbsolutePath()));
-            try {
-                contextSpace.writeSpace(contextSpaceFile);
-            } catch (FileNotFoundException ex) {
-                logger.log(Level.SEVERE, String.format("Couldn't Write Context Space: %s", ex.toString()), ex);
+            logger.log(Level.INFO, String.format("Generating Context Space, Context Size: %s", Arrays.toString(contextSizes)));
+            SpaceBatch batch = new SpaceBatch();
+            for(int contextSize : contextSizes) {
+                ContextSpace contextSpace = new ContextSpace(corpus, contextSize);
+                contextSpace.setThreads(Runtime.getRuntime().availableProcessors());
+                contextSpace.setTargetIndex(targetIndex);
+                batch.add(contextSpace, targets);
+            }
+            batch.generateSpaces();
+            for(int i = 0; i < contextSizes.length; i++) {
+                VectorSpace contextSpace = batch.getSpaces().get(i);
+                logger.log(Level.INFO, String.format("Path Value Cache Hits: %,d, Misses: %,d", contextSpace.getPathValueHits(), contextSpace.getPathValueMisses()));
+                File contextSpaceFile = new File(String.format("%s.context-%d", path, contextSizes[i]));
+                logger.log(Level.INFO, String.format("Writing Context Space: %s", contextSpaceFile.getAbsolutePath()));
+                try {
+                    contextSpace.writeSpace(contextSpaceFile);
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, String.format("Couldn't Write Context Space: %s", ex.toString()), ex);
+                }
+                contextSpace.release();
             }
         }
 
@@ -139,16 +215,306 @@ public class Main {
         {
             logger.log(Level.INFO, "Generating Dependency Space");
             DependencySpace dependencySpace = new DependencySpace(corpus);
+            dependencySpace.setThreads(Runtime.getRuntime().availableProcessors());
+            dependencySpace.setTargetIndex(targetIndex);
+            dependencySpace.setMaxPathLength(maxPathLength);
+            dependencySpace.setAllowedPOS(allowedPOS);
             dependencySpace.generateSpace(targets);
+            logger.log(Level.INFO, String.format("Path Value Cache Hits: %,d, Misses: %,d", dependencySpace.getPathValueHits(), dependencySpace.getPathValueMisses()));
             File dependencySpaceFile = new File(String.format("%s.dependency", path));
             logger.log(Level.INFO, String.format("Writing Dependency Space: %s", dependencySpaceFile.getAbsolutePath()));
             try {
                 dependencySpace.writeSpace(dependencySpaceFile);
-            } catch (FileNotFoundException ex) {
+            } catch (IOException ex) {
                 logger.log(Level.SEVERE, String.format("Couldn't Write Dependency Space: %s", ex.toString()), ex);
             }
+            dependencySpace.release();
         }
 
     }
 
+    /**
+     * Reads a job file.  Each line describes one space, as either
+     * <pre>
+     * context    targets-file  context-sizes [OPTION=value ...] [FUNCTION_TYPE=script-file ...]
+     * dependency targets-file  [OPTION=value ...] [FUNCTION_TYPE=script-file ...]
+     * </pre>
+     * where the context sizes are separated by commas, and FUNCTION_TYPE is one of
+     * CONTEXT_SELECTION, PATH_VALUE or BASIS_MAPPING.  The options for a context space are
+     * WEIGHTING (UNIFORM, INVERSE_DISTANCE or EXPONENTIAL), DECAY and POSITIONAL (true or false).
+     * The options for a dependency space are MAX_PATH_LENGTH and ALLOWED_POS, which is
+     * a list of parts of speech separated by commas.
+     * Functions that aren't given use the defaults.  Relative file names are
+     * relative to the job file, and anything after a # is ignored.
+     */
+    private static List<Job> readJobs(File jobsFile) throws IOException {
+        List<Job> jobs = new ArrayList<Job>();
+        File directory = jobsFile.getAbsoluteFile().getParentFile();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(jobsFile), BaseForm.DEFAULT_ENCODING));
+        try {
+            String line = in.readLine();
+            while(line != null) {
+                int commentStarts = line.indexOf("#");
+                if(commentStarts > -1) {
+                    line = line.substring(0, commentStarts);
+                }
+                line = line.trim();
+                if(line.length() > 0) {
+                    String[] fields = line.split("\\s+");
+                    Job job = new Job();
+                    job.type = fields[0];
+                    int next = 1;
+                    if(fields.length > next) {
+                        job.targetsFile = resolve(directory, fields[next++]);
+                    }
+                    if(job.type.equals("context")) {
+                        if(fields.length > next) {
+                            job.contextSizes = parseSizes(fields[next++]);
+                        }
+                    } else if(!job.type.equals("dependency")) {
+                        throw new IOException(String.format("Unknown space type: %s", job.type));
+                    }
+                    if(job.targetsFile == null || (job.type.equals("context") && job.contextSizes == null)) {
+                        throw new IOException(String.format("Incomplete job: %s", line));
+                    }
+                    for(; next < fields.length; next++) {
+                        int equals = fields[next].indexOf('=');
+                        String option = fields[next].substring(0, Math.max(0, equals));
+                        String value = fields[next].substring(equals + 1);
+                        if(job.type.equals("context") && option.equals("WEIGHTING")) {
+                            job.weighting = ContextSpace.Weighting.valueOf(value);
+                        } else if(job.type.equals("context") && option.equals("DECAY")) {
+                            job.decay = Double.parseDouble(value);
+                        } else if(job.type.equals("context") && option.equals("POSITIONAL")) {
+                            job.positional = Boolean.parseBoolean(value);
+                        } else if(job.type.equals("dependency") && option.equals("MAX_PATH_LENGTH")) {
+                            job.maxPathLength = Integer.parseInt(value);
+                        } else if(job.type.equals("dependency") && option.equals("ALLOWED_POS")) {
+                            job.allowedPOS = parseList(value);
+                        } else {
+                            FunctionType functionType = null;
+                            try {
+                                functionType = FunctionType.valueOf(option);
+                            } catch (IllegalArgumentException ex) {
+                                // Checked below
+                            }
+                            if(equals < 0 || !SPACE_FUNCTIONS.contains(functionType)) {
+                                throw new IOException(String.format("Couldn't parse function: %s", fields[next]));
+                            }
+                            job.functions.put(functionType, resolve(directory, value));
+                        }
+                    }
+                    jobs.add(job);
+                }
+                line = in.readLine();
+            }
+        } finally {
+            in.close();
+        }
+        return jobs;
+    }
+
+    /**
+     * @return the sizes in a list such as 1,3,5
+     */
+    private static int[] parseSizes(String list) {
+        String[] fields = list.split(",");
+        int[] sizes = new int[fields.length];
+        for(int i = 0; i < fields.length; i++) {
+            sizes[i] = Integer.parseInt(fields[i].trim());
+        }
+        return sizes;
+    }
+
+    /**
+     * @return the items in a list such as 名詞,動詞
+     */
+    private static List<String> parseList(String list) {
+        List<String> items = new ArrayList<String>();
+        for(String item : list.split(",")) {
+            if(item.trim().length() > 0) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    private static File resolve(File directory, String name) {
+        File file = new File(name);
+        if(!file.isAbsolute()) {
+            file = new File(directory, name);
+        }
+        return file;
+    }
+
+    /**
+     * Generates the spaces for a list of jobs together, so the corpus is read
+     * once for all of their context spaces and once for all of their dependency spaces.
+     * Each space is given the functions of its own job, and a script used by
+     * several jobs is loaded once so that their spaces can still share work.
+     * Each space is written next to the corpus, named after its targets file.
+     */
+    private static void runJobs(List<Job> jobs, IndexedCorpus corpus, TargetIndex targetIndex, String path) {
+        Logger logger = Logger.getLogger(Main.class.getName());
+        Map<FunctionType, Map<File, Function>> scripts = new EnumMap<FunctionType, Map<File, Function>>(FunctionType.class);
+        for(FunctionType functionType : SPACE_FUNCTIONS) {
+            scripts.put(functionType, new HashMap<File, Function>());
+        }
+        SpaceBatch batch = new SpaceBatch();
+        List<File> spaceFiles = new ArrayList<File>();
+        for(Job job : jobs) {
+            List<BaseForm> targets = null;
+            try {
+                targets = BaseForm.getInstances(job.targetsFile);
+            } catch (Exception ex) {
+                logger.log(Level.SEVERE, String.format("Couldn't read targets file: %s", ex.toString()), ex);
+            }
+            if(targets != null) {
+                String name = job.targetsFile.getName();
+                if(name.lastIndexOf('.') > 0) {
+                    name = name.substring(0, name.lastIndexOf('.'));
+                }
+                List<VectorSpace> spaces = new ArrayList<VectorSpace>();
+                if(job.type.equals("context")) {
+                    for(int contextSize : job.contextSizes) {
+                        ContextSpace contextSpace = new ContextSpace(corpus, contextSize);
+                        contextSpace.setThreads(Runtime.getRuntime().availableProcessors());
+                        contextSpace.setTargetIndex(targetIndex);
+                        contextSpace.setWeighting(job.weighting);
+                        contextSpace.setDecay(job.decay);
+                        contextSpace.setPositional(job.positional);
+                        spaces.add(contextSpace);
+                        spaceFiles.add(new File(String.format("%s.%s.context-%d%s", path, name, contextSize, job.getSuffix())));
+                    }
+                } else {
+                    DependencySpace dependencySpace = new DependencySpace(corpus);
+                    dependencySpace.setThreads(Runtime.getRuntime().availableProcessors());
+                    dependencySpace.setTargetIndex(targetIndex);
+                    dependencySpace.setMaxPathLength(job.maxPathLength);
+                    dependencySpace.setAllowedPOS(job.allowedPOS);
+                    spaces.add(dependencySpace);
+                    spaceFiles.add(new File(String.format("%s.%s.dependency%s", path, name, job.getSuffix())));
+                }
+                for(VectorSpace space : spaces) {
+                    for(Map.Entry<FunctionType, File> entry : job.functions.entrySet()) {
+                        Map<File, Function> loaded = scripts.get(entry.getKey());
+                        Function function = loaded.get(entry.getValue());
+                        if(function == null) {
+                            function = new Function(entry.getValue());
+                            loaded.put(entry.getValue(), function);
+                        }
+                        space.setFunction(entry.getKey(), function);
+                    }
+                    batch.add(space, targets);
+                }
+            }
+        }
+
+        logger.log(Level.INFO, String.format("Generating %,d Spaces", spaceFiles.size()));
+        double startTime = new Date().getTime();
+        batch.generateSpaces();
+        double endTime = new Date().getTime();
+        logger.log(Level.INFO, String.format("Total Generation Time: %,.3f seconds", (endTime - startTime) / 1000.0));
+        for(int i = 0; i < spaceFiles.size(); i++) {
+            VectorSpace space = batch.getSpaces().get(i);
+            logger.log(Level.INFO, String.format("Writing Space: %s", spaceFiles.get(i).getAbsolutePath()));
+            try {
+                space.writeSpace(spaceFiles.get(i));
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, String.format("Couldn't Write Space: %s", ex.toString()), ex);
+            }
+            space.release();
+        }
+    }
+
+    /**
+     * One space listed in a job file.
+     */
+    private static class Job {
+        private String type;
+        private File targetsFile;
+        private int[] contextSizes;
+        private ContextSpace.Weighting weighting = ContextSpace.Weighting.UNIFORM;
+        private double decay = ContextSpace.DEFAULT_DECAY;
+        private boolean positional = false;
+        private int maxPathLength = 0;
+        private List<String> allowedPOS = null;
+        private final Map<FunctionType, File> functions = new EnumMap<FunctionType, File>(FunctionType.class);
+
+        /**
+         * @return the end of the file name, so that spaces counted in different ways don't overwrite each other
+         */
+        private String getSuffix() {
+            StringBuilder sb = new StringBuilder();
+            if(weighting != ContextSpace.Weighting.UNIFORM) {
+                sb.append('-').append(weighting.name().toLowerCase());
+            }
+            if(weighting == ContextSpace.Weighting.EXPONENTIAL) {
+                sb.append('-').append(decay);
+            }
+            if(positional) {
+                sb.append("-positional");
+            }
+            if(maxPathLength > 0) {
+                sb.append("-max-").append(maxPathLength);
+            }
+            if(allowedPOS != null) {
+                sb.append("-pos");
+                for(String pos : allowedPOS) {
+                    sb.append('-').append(pos);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Reads the target index saved next to the corpus, or builds and saves a new one.
+     */
+    private static TargetIndex getTargetIndex(IndexedCorpus corpus, String path, boolean reuse) {
+        Logger logger = Logger.getLogger(Main.class.getName());
+        File indexFile = new File(String.format("%s.index", path));
+        TargetIndex index = null;
+        if(reuse && indexFile.exists()) {
+            logger.log(Level.INFO, String.format("Reading Target Index: %s", indexFile.getAbsolutePath()));
+            try {
+                index = TargetIndex.read(indexFile);
+                if(!index.matches(corpus)) {
+                    logger.log(Level.WARNING, String.format("Target Index Doesn't Match Corpus: %s", indexFile.getAbsolutePath()));
+                    index = null;
+                }
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, String.format("Couldn't Read Target Index: %s", ex.toString()), ex);
+            }
+        }
+        if(index == null) {
+            logger.log(Level.INFO, "Building Target Index");
+            index = TargetIndex.build(corpus);
+            logger.log(Level.INFO, String.format("Writing Target Index: %s", indexFile.getAbsolutePath()));
+            try {
+                index.write(indexFile);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, String.format("Couldn't Write Target Index: %s", ex.toString()), ex);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Writes a binary copy of a parsed corpus so that later runs can load it
+     * without parsing the original file again.
+     */
+    private static void writeBinary(PackedCorpus corpus, String path) {
+        Logger logger = Logger.getLogger(Main.class.getName());
+        if(corpus != null) {
+            File binaryFile = new File(String.format("%s.corpus", path));
+            logger.log(Level.INFO, String.format("Writing Binary File: %s", binaryFile.getAbsolutePath()));
+            try {
+                corpus.writeBinary(binaryFile);
+            } catch (Exception ex) {
+                logger.log(Level.WARNING, String.format("Couldn't Write Binary File: %s", ex.toString()), ex);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,143 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.vectorspace;
+
+/**
+ * A sparse matrix of doubles whose rows and columns are numbered by dense, non-negative ints.
+ *
+ * The rows are held in an array indexed by row number, and each row is a {@link SparseVector}.
+ * This class isn't thread safe; threads should count into matrices of their own
+ * and merge them with {@link #addAll(SparseMatrix)}.
+ */
+public class SparseMatrix {
+
+    private static final int INITIAL_ROWS = 16;
+
+    private SparseVector[] rows = new SparseVector[INITIAL_ROWS];
+    private int rowCount = 0;
+
+    /**
+     * Adds the given value to a single cell.
+     */
+    public void add(int row, int column, double value) {
+        getOrCreateRow(row).add(column, value);
+    }
+
+    /**
+     * @return the given row, or null if nothing has been added to it
+     */
+    public SparseVector getRow(int row) {
+        return row >= 0 && row < rows.length ? rows[row] : null;
+    }
+
+    /**
+     * @return the given row, which is created if nothing has been added to it yet
+     */
+    public SparseVector getOrCreateRow(int row) {
+        if (row < 0) {
+            throw new IllegalArgumentException(String.format("Negative row: %d", row));
+        }
+        if (row >= rows.length) {
+            SparseVector[] newRows = new SparseVector[Math.max(row + 1, rows.length * 2)];
+            System.arraycopy(rows, 0, newRows, 0, rows.length);
+            rows = newRows;
+        }
+        SparseVector vector = rows[row];
+        if (vector == null) {
+            vector = new SparseVector();
+            rows[row] = vector;
+            rowCount++;
+        }
+        return vector;
+    }
+
+    public double get(int row, int column) {
+        SparseVector vector = getRow(row);
+        return vector == null ? 0.0 : vector.get(column);
+    }
+
+    /**
+     * @return the number of rows that have been created
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the numbers of the rows that have been created, in ascending order
+     */
+    public int[] getRows() {
+        int[] ret = new int[rowCount];
+        int i = 0;
+        for (int row = 0; row < rows.length; row++) {
+            if (rows[row] != null) {
+                ret[i++] = row;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Adds every cell of the given matrix to this one.
+     * Rows that this matrix doesn't have yet are taken over rather than copied,
+     * so the given matrix shouldn't be changed afterwards.
+     */
+    public void addAll(SparseMatrix that) {
+        for (int row = 0; row < that.rows.length; row++) {
+            if (that.rows[row] != null) {
+                SparseVector vector = getRow(row);
+                if (vector == null) {
+                    // Nothing to add to, so take the row as it is
+                    getOrCreateRow(row);
+                    rows[row] = that.rows[row];
+                } else {
+                    vector.addAll(that.rows[row]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds every cell of the given matrix to this one, copying every row,
+     * so the given matrix can still be used afterwards.
+     */
+    public void addCopy(SparseMatrix that) {
+        for (int row = 0; row < that.rows.length; row++) {
+            if (that.rows[row] != null) {
+                getOrCreateRow(row).addAll(that.rows[row]);
+            }
+        }
+    }
+
+    public void clear() {
+        rows = new SparseVector[INITIAL_ROWS];
+        rowCount = 0;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+Japanese Dependency Vectors (jpdv) - A tool for creating Japanese semantic vector spaces.
+Copyright (C) 2010 Andrew Young <andrew at vaelen.org>
+
+This program is free software: you can redistribute it and/or modify 
+it under the terms of the GNU General Public License as published 
+by the Free Software Foundation, either version 3 of the License, or 
+(at your option) any later version. This program is distributed in the 
+hope that it will be useful, but WITHOUT ANY WARRANTY; without 
+even the implied warranty of MERCHANTABILITY or FITNESS FOR 
+A PARTICULAR PURPOSE. See the GNU General Public License 
+for more details. You should have received a copy of the GNU General 
+Public License along with this program. If not, see <http://www.gnu.org/licenses/>. 
+
+Linking this library statically or dynamically with other modules is
+making a combined work based on this library. Thus, the terms and
+conditions of the GNU General Public License cover the whole combination.
+
+As a special exception, the copyright holders of this library give you permission
+to link this library with independent modules to produce an executable, regardless
+of the license terms of these independent modules, and to copy and distribute
+the resulting executable under terms of your choice, provided that you also meet,
+for each linked independent module, the terms and conditions of the license of
+that module. An independent module is a module which is not derived from or
+based on this library. If you modify this library, you may extend this exception
+to your version of the library, but you are not obligated to do so. If you do not
+wish to do so, delete this exception statement from your version. 
+*/
+
+package jpdv.vectorspace;
+
+import java.util.Arrays;
+
+/**
+ * A sparse vector of doubles keyed by non-negative ints.
+ *
+ * The entries are kept in an open-addressing hash table with linear probing,
+ * so adding to an entry doesn't box the value or allocate anything unless
+ * the table has to grow.  Entries are never removed.
+ */
+public class SparseVector {
+
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private static final int EMPTY = -1;
+    // The table grows when it is more than this fraction full
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private double[] values;
+    private int size = 0;
+    private int mask;
+    private int threshold;
+
+    public SparseVector() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of entries to make room for
+     */
+    public SparseVector(int capacity) {
+        int tableSize = DEFAULT_CAPACITY;
+        while (tableSize * LOAD_FACTOR < capacity) {
+            tableSize <<= 1;
+        }
+        allocate(tableSize);
+    }
+
+    private void allocate(int tableSize) {
+        keys = new int[tableSize];
+        Arrays.fill(keys, EMPTY);
+        values = new double[tableSize];
+        mask = tableSize - 1;
+        threshold = (int) (tableSize * LOAD_FACTOR);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int findSlot(int key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != key && keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Adds the given value to the entry for the given key.
+     */
+    public void add(int key, double value) {
+        if (key < 0) {
+            throw new IllegalArgumentException(String.format("Negative key: %d", key));
+        }
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size > threshold) {
+                rehash();
+            }
+        } else {
+            values[slot] += value;
+        }
+    }
+
+    /**
+     * Adds every entry of the given vector to this one.
+     */
+    public void addAll(SparseVector that) {
+        for (int slot = 0; slot < that.keys.length; slot++) {
+            if (that.keys[slot] != EMPTY) {
+                add(that.keys[slot], that.values[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return the value for the given key, or zero if there isn't one
+     */
+    public double get(int key) {
+        if (key < 0) {
+            return 0.0;
+        }
+        int slot = findSlot(key);
+        return keys[slot] == EMPTY ? 0.0 : values[slot];
+    }
+
+    public boolean containsKey(int key) {
+        return key >= 0 && keys[findSlot(key)] != EMPTY;
+    }
+
+    /**
+     * @return the number of entries in this vector
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the keys of every entry, in no particular order
+     */
+    public int[] getKeys() {
+        int[] ret = new int[size];
+        int i = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                ret[i++] = keys[slot];
+            }
+        }
+        return ret;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != EMPTY) {
+                int newSlot = findSlot(oldKeys[slot]);
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+}